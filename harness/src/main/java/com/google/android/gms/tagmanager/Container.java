@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.google.android.gms.tagmanager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stub of a Tag Manager container, backed by a map of values. Missing values
+ * read as "", false and 0, as in Tag Manager.
+ */
+public class Container {
+
+    private final String containerId;
+    private final Map<String, Object> values;
+    private final boolean isDefault;
+
+    public Container(String containerId, Map<String, ?> values, boolean isDefault) {
+        this.containerId = containerId;
+        this.values = values != null ? new HashMap<String, Object>(values) : Collections.<String, Object>emptyMap();
+        this.isDefault = isDefault;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public boolean isDefault() {
+        return isDefault;
+    }
+
+    public String getString(String key) {
+        Object value = values.get(key);
+        return value != null ? value.toString() : "";
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    public long getLong(String key) {
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    public double getDouble(String key) {
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+}
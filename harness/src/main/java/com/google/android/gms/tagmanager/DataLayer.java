@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.google.android.gms.tagmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stub of the Tag Manager DataLayer. mapOf() and listOf() build collections
+ * the way Tag Manager does; pushes are merged into a flat model.
+ */
+public class DataLayer {
+
+    public static final String EVENT_KEY = "event";
+
+    private final Map<String, Object> model = new HashMap<String, Object>();
+
+    DataLayer() {
+    }
+
+    public static Map<String, Object> mapOf(Object... objects) {
+        if (objects.length % 2 != 0) {
+            throw new IllegalArgumentException("expected even number of key-value pairs");
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < objects.length; i += 2) {
+            if (!(objects[i] instanceof String)) {
+                throw new IllegalArgumentException("key is not a string: " + objects[i]);
+            }
+            map.put((String) objects[i], objects[i + 1]);
+        }
+        return map;
+    }
+
+    public static List<Object> listOf(Object... objects) {
+        List<Object> list = new ArrayList<Object>();
+        for (Object object : objects) {
+            list.add(object);
+        }
+        return list;
+    }
+
+    public synchronized void push(Map<String, Object> update) {
+        model.putAll(update);
+    }
+
+    public void push(String key, Object value) {
+        push(mapOf(key, value));
+    }
+
+    public void pushEvent(String eventName, Map<String, Object> update) {
+        Map<String, Object> event = new HashMap<String, Object>(update);
+        event.put(EVENT_KEY, eventName);
+        push(event);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return model.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.google.android.gms.tagmanager;
+
+import android.content.Context;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stub of the Tag Manager singleton. Containers load at once as empty,
+ * non-default containers.
+ */
+public class TagManager {
+
+    private static TagManager instance;
+
+    private final Context context;
+    private final DataLayer dataLayer = new DataLayer();
+
+    private TagManager(Context context) {
+        this.context = context;
+    }
+
+    public static TagManager getInstance(Context context) {
+        synchronized (TagManager.class) {
+            if (instance == null) {
+                if (context == null) {
+                    throw new NullPointerException("TagManager.getInstance requires non-null context.");
+                }
+                instance = new TagManager(context.getApplicationContext());
+            }
+            return instance;
+        }
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public DataLayer getDataLayer() {
+        return dataLayer;
+    }
+
+    public void dispatch() {
+    }
+
+    public void setVerboseLoggingEnabled(boolean enableVerboseLogging) {
+    }
+
+    public PendingResult<ContainerHolder> loadContainerPreferNonDefault(final String containerId, int defaultContainerResourceId) {
+        final Container container = new Container(containerId, null, false);
+        return new PendingResult<ContainerHolder>() {
+            @Override
+            public void setResultCallback(ResultCallback<? super ContainerHolder> callback) {
+                callback.onResult(new ContainerHolder() {
+                    @Override
+                    public Container getContainer() {
+                        return container;
+                    }
+
+                    @Override
+                    public void refresh() {
+                    }
+
+                    @Override
+                    public void setContainerAvailableListener(ContainerAvailableListener listener) {
+                    }
+
+                    @Override
+                    public Status getStatus() {
+                        return Status.RESULT_SUCCESS;
+                    }
+
+                    @Override
+                    public void release() {
+                    }
+                });
+            }
+
+            @Override
+            public void setResultCallback(ResultCallback<? super ContainerHolder> callback, long time, TimeUnit units) {
+                setResultCallback(callback);
+            }
+        };
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of execute() for the action mixes a shop app sends, measured on the
+ * calling thread with synchronous execution against the fake TagManager.
+ * Throughput gives ops/sec and SampleTime the latency percentiles, p99
+ * included; run with -prof gc for the allocation per op (gc.alloc.rate.norm).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionBenchmark {
+
+    private static final int BURST_SIZE = 20;
+    private static final int MIX_SIZE = 30;
+
+    /**
+     * Whether responses carry only a sequence number instead of the DataLayer.
+     */
+    @Param({"true", "false"})
+    public boolean leanResponses;
+
+    /**
+     * 0 pushes every impression at once; otherwise impressions are aggregated
+     * and flushed by the worker.
+     */
+    @Param({"0", "500"})
+    public long impressionWindowMs;
+
+    private File dir;
+    private PluginHarness harness;
+    private final RecordingCallbackContext callback = new RecordingCallbackContext();
+    private JSONArray[] burst;
+    private JSONArray[] mix;
+    private JSONArray transaction;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JSONException {
+        dir = Files.createTempDirectory("tagmanager-bench").toFile();
+        harness = new PluginHarness(dir);
+        harness.init("GTM-BENCH", new JSONObject()
+                .put("leanResponses", leanResponses)
+                .put("impressionWindowMs", impressionWindowMs));
+        burst = Workloads.impressionBurst(BURST_SIZE);
+        mix = Workloads.pushEventMix(MIX_SIZE);
+        transaction = Workloads.transactionArgs(500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        harness.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * A product list of 20 items scrolled into view, one pushImpression each.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public RecordingCallbackContext impressionBurst() {
+        for (JSONArray args : burst) {
+            harness.execute("pushImpression", callback, args);
+        }
+        return callback;
+    }
+
+    @Benchmark
+    public RecordingCallbackContext transaction500() {
+        harness.execute("pushTransaction", callback, transaction);
+        return callback;
+    }
+
+    /**
+     * pushEvent with flat, nested and array payloads in turn.
+     */
+    @Benchmark
+    public RecordingCallbackContext pushEventMix() {
+        harness.execute("pushEvent", callback, mix[next++ % MIX_SIZE]);
+        return callback;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import com.google.android.gms.tagmanager.DataLayer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataLayerConverter against the conversion the plugin used before it, copied
+ * below from the original CDVTagManager. Run with -prof gc for bytes per op.
+ * <p>
+ * The results are not equivalent: the old objectMap() leaves nested objects
+ * and arrays as org.json values, which the DataLayer does not understand, and
+ * the old product map has neither the optional fields nor a validated price.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConverterBenchmark {
+
+    @Param({"1", "50", "500"})
+    public int products;
+
+    /**
+     * Whether products also carry brand, category and variant, which only the
+     * converter copies.
+     */
+    @Param({"true", "false"})
+    public boolean optionalFields;
+
+    private JSONArray cart;
+    private JSONObject payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JSONException {
+        cart = Workloads.cart(products);
+        if (!optionalFields) {
+            for (int i = 0; i < cart.length(); i++) {
+                JSONObject product = cart.getJSONObject(i);
+                product.remove("brand");
+                product.remove("category");
+                product.remove("variant");
+            }
+        }
+        payload = new JSONObject()
+                .put("event", "checkout")
+                .put("step", 1)
+                .put("ecommerce", new JSONObject().put("currencyCode", "EUR").put("products", cart));
+    }
+
+    /**
+     * The pushCheckout and pushTransaction product loop before: a map per
+     * product, a raw list, toArray() and DataLayer.listOf().
+     */
+    @Benchmark
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public List<Object> legacyProductList() throws JSONException {
+        ArrayList items = new ArrayList<Map<String, Object>>();
+
+        for (int i = 0; i < cart.length(); i++) {
+            JSONObject item = cart.getJSONObject(i);
+
+            Map<String, Object> itemMap = getProductMap(item);
+            items.add(itemMap);
+        }
+
+        return DataLayer.listOf(items.toArray(new Object[items.size()]));
+    }
+
+    @Benchmark
+    public List<Object> converterProductList() throws JSONException {
+        return DataLayerConverter.productList(cart, 0, cart.length());
+    }
+
+    /**
+     * pushEvent with a cart inside, before: only the top level is copied.
+     */
+    @Benchmark
+    public Map<String, Object> legacyObjectMap() throws JSONException {
+        return objectMap(payload);
+    }
+
+    /**
+     * pushEvent with a cart inside, now: the whole tree is converted.
+     */
+    @Benchmark
+    public Map<String, Object> converterToMap() {
+        return DataLayerConverter.toMap(payload);
+    }
+
+    private static Map<String, Object> getProductMap(JSONObject item) throws JSONException {
+        return DataLayer.mapOf(
+                "name", item.getString("name"),
+                "id", item.getString("id"),
+                "price", item.getString("price"),
+                "quantity", item.has("quantity") ? item.getString("quantity") : "1");
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Map<String, Object> objectMap(JSONObject o) throws JSONException {
+        if (o.length() == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> map = new HashMap<String, Object>(o.length());
+        Iterator it = o.keys();
+        String key;
+        Object value;
+        while (it.hasNext()) {
+            key = (String) it.next();
+            value = o.has(key) ? o.get(key) : null;
+            map.put(key, value);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory DataLayer. Pushes are merged into a flat model like the GMS one;
+ * when recording, every pushed map is kept as well, so tests can check what
+ * the plugin sent and in which order.
+ */
+class FakeDataLayer implements DataLayerClient {
+
+    private final Map<String, Object> model = new HashMap<String, Object>();
+    private final List<Map<String, Object>> pushes = new ArrayList<Map<String, Object>>();
+    private volatile boolean recording;
+    private long pushCount;
+
+    void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    @Override
+    public synchronized void push(Map<String, Object> update) {
+        pushCount++;
+        model.putAll(update);
+        if (recording) {
+            pushes.add(update);
+        }
+    }
+
+    @Override
+    public void push(String key, Object value) {
+        Map<String, Object> update = new HashMap<String, Object>(2);
+        update.put(key, value);
+        push(update);
+    }
+
+    @Override
+    public void pushEvent(String eventName, Map<String, Object> update) {
+        Map<String, Object> event = new HashMap<String, Object>(update);
+        event.put("event", eventName);
+        push(event);
+    }
+
+    synchronized long getPushCount() {
+        return pushCount;
+    }
+
+    /**
+     * @return the recorded pushes that carry an event, oldest first
+     */
+    synchronized List<Map<String, Object>> getEvents() {
+        List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        for (Map<String, Object> push : pushes) {
+            if (push.get("event") != null) {
+                events.add(push);
+            }
+        }
+        return events;
+    }
+
+    synchronized List<Map<String, Object>> getPushes() {
+        return new ArrayList<Map<String, Object>>(pushes);
+    }
+
+    synchronized void reset() {
+        model.clear();
+        pushes.clear();
+        pushCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return model.toString();
+    }
+}
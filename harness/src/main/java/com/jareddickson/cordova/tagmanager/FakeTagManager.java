@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.tagmanager.Container;
+import com.google.android.gms.tagmanager.ContainerHolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory TagManager. Containers open with the values set with
+ * setContainerValues(), on the calling thread unless a delivery executor is
+ * set, or not at all while loads are held back with setHoldLoads().
+ */
+class FakeTagManager implements TagManagerClient {
+
+    private final FakeDataLayer dataLayer = new FakeDataLayer();
+    private final Map<String, Map<String, Object>> containerValues = new HashMap<String, Map<String, Object>>();
+    private final List<FakeContainerHolder> holders = new ArrayList<FakeContainerHolder>();
+    private final List<Runnable> heldLoads = new ArrayList<Runnable>();
+    private final AtomicInteger dispatchCount = new AtomicInteger();
+    private volatile Executor delivery;
+    private boolean holdLoads;
+
+    @Override
+    public FakeDataLayer getDataLayer() {
+        return dataLayer;
+    }
+
+    @Override
+    public void dispatch() {
+        dispatchCount.incrementAndGet();
+    }
+
+    @Override
+    public void setVerboseLoggingEnabled(boolean enabled) {
+    }
+
+    int getDispatchCount() {
+        return dispatchCount.get();
+    }
+
+    synchronized void setContainerValues(String containerId, Map<String, Object> values) {
+        containerValues.put(containerId, values);
+    }
+
+    void setDelivery(Executor delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * While set, loads stay pending until releaseLoads(), like a container
+     * that is still being read from disk.
+     */
+    synchronized void setHoldLoads(boolean holdLoads) {
+        this.holdLoads = holdLoads;
+    }
+
+    void releaseLoads() {
+        List<Runnable> loads;
+        synchronized (this) {
+            holdLoads = false;
+            loads = new ArrayList<Runnable>(heldLoads);
+            heldLoads.clear();
+        }
+        for (Runnable load : loads) {
+            deliver(load);
+        }
+    }
+
+    /**
+     * Makes a new version of an open container available, as a network
+     * refresh does, with the given values.
+     */
+    void publish(String containerId, Map<String, Object> values) {
+        setContainerValues(containerId, values);
+        List<FakeContainerHolder> open;
+        synchronized (this) {
+            open = new ArrayList<FakeContainerHolder>(holders);
+        }
+        for (FakeContainerHolder holder : open) {
+            if (holder.containerId.equals(containerId) && !holder.released) {
+                holder.update(new Container(containerId, values, false));
+            }
+        }
+    }
+
+    @Override
+    public PendingResult<ContainerHolder> loadContainerPreferNonDefault(final String containerId, int defaultContainerResourceId) {
+        return new PendingResult<ContainerHolder>() {
+            @Override
+            public void setResultCallback(final ResultCallback<? super ContainerHolder> callback) {
+                Runnable load = new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, Object> values;
+                        synchronized (FakeTagManager.this) {
+                            values = containerValues.get(containerId);
+                        }
+                        FakeContainerHolder holder = new FakeContainerHolder(containerId, new Container(containerId, values, false));
+                        synchronized (FakeTagManager.this) {
+                            holders.add(holder);
+                        }
+                        callback.onResult(holder);
+                    }
+                };
+                synchronized (FakeTagManager.this) {
+                    if (holdLoads) {
+                        heldLoads.add(load);
+                        return;
+                    }
+                }
+                deliver(load);
+            }
+
+            @Override
+            public void setResultCallback(ResultCallback<? super ContainerHolder> callback, long time, TimeUnit units) {
+                setResultCallback(callback);
+            }
+        };
+    }
+
+    private void deliver(Runnable load) {
+        Executor executor = delivery;
+        if (executor != null) {
+            executor.execute(load);
+        } else {
+            load.run();
+        }
+    }
+
+    private static class FakeContainerHolder implements ContainerHolder {
+        private final String containerId;
+        private volatile Container container;
+        private volatile ContainerAvailableListener listener;
+        private volatile boolean released;
+        private int version;
+
+        FakeContainerHolder(String containerId, Container container) {
+            this.containerId = containerId;
+            this.container = container;
+        }
+
+        void update(Container updated) {
+            container = updated;
+            ContainerAvailableListener current = listener;
+            if (current != null) {
+                current.onContainerAvailable(this, String.valueOf(++version));
+            }
+        }
+
+        @Override
+        public Container getContainer() {
+            return released ? null : container;
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void setContainerAvailableListener(ContainerAvailableListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public Status getStatus() {
+            return Status.RESULT_SUCCESS;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the plugin from several bridge threads with a weighted action mix and
+ * reports ops/sec, p50/p99/p99.9 latency and allocation per op. Latency runs
+ * from the call until its callback, so it includes the time an action waits
+ * for the worker when async is on. With a target rate, calls are measured from
+ * their intended start, so a stalled plugin is not hidden by a stalled sender.
+ * <p>
+ * Calls made during the warmup are not counted.
+ * <p>
+ * Options, all optional: --threads N, --warmup SECONDS, --seconds N, --rate OPS_PER_SEC (0 sends
+ * as fast as possible), --async, --lean, --journal, --impressionWindowMs N and
+ * --weights E,I,T,P for pushEvent, pushImpression, pushTransaction (500 items)
+ * and trackPage.
+ */
+public final class LoadGenerator {
+
+    private static final int MIX_SIZE = 30;
+    private static final int BURST_SIZE = 20;
+
+    private int threads = 4;
+    private int warmupSeconds = 3;
+    private int seconds = 10;
+    private long rate;
+    private boolean async;
+    private boolean lean;
+    private boolean journal;
+    private long impressionWindowMs;
+    private int[] weights = {60, 35, 1, 4};
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--warmup")) {
+                warmupSeconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--rate")) {
+                rate = Long.parseLong(args[++i]);
+            } else if (arg.equals("--async")) {
+                async = true;
+            } else if (arg.equals("--lean")) {
+                lean = true;
+            } else if (arg.equals("--journal")) {
+                journal = true;
+            } else if (arg.equals("--impressionWindowMs")) {
+                impressionWindowMs = Long.parseLong(args[++i]);
+            } else if (arg.equals("--weights")) {
+                String[] parts = args[++i].split(",");
+                if (parts.length != weights.length) {
+                    throw new IllegalArgumentException("--weights needs " + weights.length + " values");
+                }
+                for (int w = 0; w < parts.length; w++) {
+                    weights[w] = Integer.parseInt(parts[w].trim());
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    private void run() throws IOException, JSONException, InterruptedException {
+        File dir = Files.createTempDirectory("tagmanager-load").toFile();
+        PluginHarness harness = new PluginHarness(dir);
+        harness.init("GTM-LOAD", new JSONObject()
+                .put("async", async)
+                .put("leanResponses", lean)
+                .put("journal", journal)
+                .put("impressionWindowMs", impressionWindowMs));
+
+        final JSONArray[] mix = Workloads.pushEventMix(MIX_SIZE);
+        final JSONArray[] burst = Workloads.impressionBurst(BURST_SIZE);
+        final JSONArray transaction = Workloads.transactionArgs(500);
+        final JSONArray page = new JSONArray().put("/checkout/payment");
+
+        final long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long deadline = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+        final long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+        final CountDownLatch done = new CountDownLatch(threads);
+        // Bridge threads stay alive until their allocations are read.
+        final CountDownLatch measured = new CountDownLatch(1);
+        final AtomicLong sent = new AtomicLong();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            final PluginHarness target = harness;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long intended = System.nanoTime();
+                    int i = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            if (intervalNanos > 0) {
+                                intended += intervalNanos;
+                                long wait = intended - System.nanoTime();
+                                if (wait > 0) {
+                                    LockSupport.parkNanos(wait);
+                                }
+                            } else {
+                                intended = System.nanoTime();
+                            }
+                            boolean measuring = intended >= measureStart;
+                            TimedCallback callback = new TimedCallback(intended, measuring);
+                            switch (pick(random)) {
+                                case 0:
+                                    target.execute("pushEvent", callback, mix[i % MIX_SIZE]);
+                                    break;
+                                case 1:
+                                    target.execute("pushImpression", callback, burst[i % BURST_SIZE]);
+                                    break;
+                                case 2:
+                                    target.execute("pushTransaction", callback, transaction);
+                                    break;
+                                default:
+                                    target.execute("trackPage", callback, page);
+                                    break;
+                            }
+                            if (measuring) {
+                                i++;
+                            }
+                        }
+                        sent.addAndGet(i);
+                    } finally {
+                        done.countDown();
+                    }
+                    try {
+                        measured.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "bridge-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long wait = measureStart - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        long allocatedBefore = allocatedBytes();
+        done.await();
+        // Async calls may still be queued on the worker; their callbacks finish the count.
+        long expected = sent.get();
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (latency.getCount() < expected && System.nanoTime() < waitUntil) {
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - measureStart;
+        long allocated = allocatedBytes() - allocatedBefore;
+        measured.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        harness.close();
+        deleteRecursively(dir);
+
+        long completed = latency.getCount();
+        System.out.printf("threads=%d warmup=%d seconds=%d rate=%s async=%s lean=%s journal=%s impressionWindowMs=%d weights=%d,%d,%d,%d%n",
+                threads, warmupSeconds, seconds, rate > 0 ? String.valueOf(rate) : "max", async, lean, journal, impressionWindowMs,
+                weights[0], weights[1], weights[2], weights[3]);
+        System.out.printf("ops=%d failed=%d ops/sec=%.0f%n", completed, failures.get(), completed / (elapsed / 1e9));
+        System.out.printf("latency us p50=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3,
+                latency.getPercentile(99.9) / 1e3, latency.getPercentile(100) / 1e3);
+        if (allocated >= 0 && completed > 0) {
+            System.out.printf("allocated bytes/op=%.0f (all threads)%n", allocated / (double) completed);
+        }
+    }
+
+    private int pick(Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            roll -= weights[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * Bytes allocated so far by the live threads, or -1 if the JVM does not say.
+     * Includes the plugin's worker, which does the pushes when async is on.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private class TimedCallback extends RecordingCallbackContext {
+        private final long startNanos;
+        private final boolean measuring;
+
+        TimedCallback(long startNanos, boolean measuring) {
+            this.startNanos = startNanos;
+            this.measuring = measuring;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (!measuring) {
+                return;
+            }
+            latency.record(System.nanoTime() - startNanos);
+            if (pluginResult.getStatus() != PluginResult.Status.OK.ordinal()) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+}
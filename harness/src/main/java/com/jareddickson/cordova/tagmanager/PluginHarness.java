@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.app.Activity;
+import android.content.Context;
+
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPreferences;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the plugin as Cordova would, against a FakeTagManager instead of Play
+ * services. The journal is kept in the given directory.
+ */
+class PluginHarness {
+
+    private final FakeTagManager tagManager = new FakeTagManager();
+    private final CDVTagManager plugin;
+
+    PluginHarness(File filesDir) {
+        this(filesDir, new CordovaPreferences());
+    }
+
+    PluginHarness(File filesDir, CordovaPreferences preferences) {
+        final Activity activity = new FakeActivity(filesDir);
+        plugin = new CDVTagManager() {
+            @Override
+            TagManagerSession createSession(Context context, ScheduledExecutorService scheduler) {
+                return new TagManagerSession(context, tagManager, this, scheduler);
+            }
+        };
+        plugin.privateInitialize(new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+        }, null, preferences);
+    }
+
+    CDVTagManager getPlugin() {
+        return plugin;
+    }
+
+    FakeTagManager getTagManager() {
+        return tagManager;
+    }
+
+    FakeDataLayer getDataLayer() {
+        return tagManager.getDataLayer();
+    }
+
+    /**
+     * Calls initGTM and waits for its answer.
+     *
+     * @param options initGTM options, or null for the defaults
+     */
+    void init(String containerId, JSONObject options) {
+        RecordingCallbackContext callback = new RecordingCallbackContext();
+        execute("initGTM", callback, new JSONArray().put(containerId).put(0).put(options != null ? options : JSONObject.NULL));
+        awaitOk(callback, "initGTM");
+    }
+
+    /**
+     * Calls an action the way the bridge does.
+     *
+     * @return whether the plugin knows the action
+     */
+    boolean execute(String action, RecordingCallbackContext callback, JSONArray args) {
+        return plugin.execute(action, args, callback);
+    }
+
+    /**
+     * Calls an action and waits for its answer.
+     */
+    RecordingCallbackContext call(String action, JSONArray args) {
+        RecordingCallbackContext callback = new RecordingCallbackContext();
+        if (!execute(action, callback, args)) {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+        await(callback, action);
+        return callback;
+    }
+
+    void close() {
+        plugin.onDestroy();
+    }
+
+    private static void awaitOk(RecordingCallbackContext callback, String action) {
+        await(callback, action);
+        if (!callback.isOk()) {
+            throw new IllegalStateException(action + " failed: " + callback.getLast().getMessage());
+        }
+    }
+
+    private static void await(RecordingCallbackContext callback, String action) {
+        try {
+            if (!callback.await(1, 10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(action + " did not answer");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the results sent to it instead of sending them to a web view. Only
+ * the last result is kept unless created with keepAll, so a benchmark can
+ * reuse one instance without it growing.
+ */
+class RecordingCallbackContext extends CallbackContext {
+
+    private final boolean keepAll;
+    private final List<PluginResult> results = new ArrayList<PluginResult>();
+    private PluginResult last;
+    private int count;
+
+    RecordingCallbackContext() {
+        this(false);
+    }
+
+    RecordingCallbackContext(boolean keepAll) {
+        super("harness", null);
+        this.keepAll = keepAll;
+    }
+
+    @Override
+    public synchronized void sendPluginResult(PluginResult pluginResult) {
+        last = pluginResult;
+        count++;
+        if (keepAll) {
+            results.add(pluginResult);
+        }
+        notifyAll();
+    }
+
+    synchronized PluginResult getLast() {
+        return last;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    synchronized List<PluginResult> getResults() {
+        return new ArrayList<PluginResult>(results);
+    }
+
+    synchronized boolean isOk() {
+        return last != null && last.getStatus() == PluginResult.Status.OK.ordinal();
+    }
+
+    /**
+     * Waits until at least the given number of results arrived.
+     *
+     * @return whether they arrived in time
+     */
+    synchronized boolean await(int expected, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (count < expected) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.app.Activity;
+
+import com.google.android.gms.tagmanager.DataLayer;
+import com.google.android.gms.tagmanager.TagManager;
+
+import org.apache.cordova.CordovaInterface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of reaching the DataLayer, before and after the handles were
+ * resolved once into a TagManagerSession. The legacy methods repeat what every
+ * action did before: the activity lookup, the synchronized TagManager singleton
+ * fetch and the DataLayer fetch, gated on an initialized flag. The session
+ * methods do what the actions do now: the readiness check and the cached
+ * DataLayer. Both push to the same stub DataLayer, so the difference is the
+ * lookup. The contended variants call from four threads at once, as the
+ * bridge and the worker do. The stub singleton only takes a lock, so the
+ * legacy numbers are a lower bound of the Play services cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionBenchmark {
+
+    private final Map<String, Object> clear = Collections.<String, Object>singletonMap("ecommerce", null);
+    private CordovaInterface cordova;
+    private boolean initialized;
+    private ScheduledExecutorService scheduler;
+    private TagManagerSession session;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Activity activity = new FakeActivity(new File(System.getProperty("java.io.tmpdir")));
+        cordova = new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+        };
+        initialized = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        session = new TagManagerSession(activity, new ContainerLoader.Listener() {
+            @Override
+            public void onStateChanged(ContainerLoader loader, ContainerLoader.State state) {
+            }
+        }, scheduler);
+        session.load(Collections.singletonMap("GTM-BENCH", 0L));
+        if (!session.isReady(null)) {
+            throw new IllegalStateException("Container did not load");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public DataLayer legacyLookup() {
+        if (!initialized) {
+            return null;
+        }
+        return TagManager.getInstance(cordova.getActivity().getApplicationContext()).getDataLayer();
+    }
+
+    @Benchmark
+    public DataLayerClient sessionLookup() {
+        if (!session.isReady(null)) {
+            return null;
+        }
+        return session.getDataLayer();
+    }
+
+    @Benchmark
+    public void legacyPush() {
+        DataLayer dataLayer = legacyLookup();
+        if (dataLayer != null) {
+            dataLayer.push(clear);
+        }
+    }
+
+    @Benchmark
+    public void sessionPush() {
+        DataLayerClient dataLayer = sessionLookup();
+        if (dataLayer != null) {
+            dataLayer.push(clear);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DataLayer legacyLookupContended() {
+        return legacyLookup();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DataLayerClient sessionLookupContended() {
+        return sessionLookup();
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Bridge arguments shaped like the ones a shop app sends: impression bursts
+ * from product lists, large purchases and pushEvent payloads of different
+ * depth. Everything is built up front so a benchmark only measures the plugin.
+ */
+final class Workloads {
+
+    /**
+     * Utility class; don't instantiate.
+     */
+    private Workloads() {
+    }
+
+    static JSONObject product(int i) {
+        try {
+            return new JSONObject()
+                    .put("id", "SKU-" + i)
+                    .put("name", "Product " + i)
+                    .put("price", (i % 100) + ".99")
+                    .put("quantity", 1 + i % 3)
+                    .put("brand", "Brand " + i % 7)
+                    .put("category", "Category/" + i % 11)
+                    .put("variant", i % 2 == 0 ? "Blue" : "Red");
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static JSONArray cart(int size) {
+        JSONArray cart = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            cart.put(product(i));
+        }
+        return cart;
+    }
+
+    static JSONArray transactionArgs(int size) {
+        try {
+            JSONObject transaction = new JSONObject()
+                    .put("transactionId", "T-" + size)
+                    .put("transactionAffiliation", "Harness")
+                    .put("transactionTotal", "1234.56")
+                    .put("transactionTax", "123.45")
+                    .put("transactionShipping", "4.99");
+            return new JSONArray().put(transaction).put(cart(size));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Arguments of the pushImpression calls a list of the given length makes
+     * when it is scrolled into view.
+     */
+    static JSONArray[] impressionBurst(int size) {
+        JSONArray[] burst = new JSONArray[size];
+        for (int i = 0; i < size; i++) {
+            burst[i] = new JSONArray().put(product(i)).put("Search Results").put("EUR");
+        }
+        return burst;
+    }
+
+    /**
+     * pushEvent arguments cycling through a flat event, one with a nested
+     * object and one with an array of objects.
+     */
+    static JSONArray[] pushEventMix(int size) {
+        JSONArray[] mix = new JSONArray[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                JSONObject payload = new JSONObject().put("event", "interaction").put("index", i);
+                switch (i % 3) {
+                    case 0:
+                        payload.put("category", "video").put("action", "play").put("label", "trailer-" + i);
+                        break;
+                    case 1:
+                        payload.put("user", new JSONObject()
+                                .put("id", "U-" + i)
+                                .put("segment", "returning")
+                                .put("consent", new JSONObject().put("analytics", true).put("ads", false)));
+                        break;
+                    default:
+                        payload.put("items", cart(5)).put("list", "Recommended");
+                        break;
+                }
+                mix[i] = new JSONArray().put(payload);
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the plugin through execute(), as the bridge does.
+ */
+class CDVTagManagerTest {
+
+    @TempDir
+    File dir;
+
+    private PluginHarness harness;
+    private FakeDataLayer dataLayer;
+
+    @BeforeEach
+    void setUp() {
+        harness = new PluginHarness(dir);
+        dataLayer = harness.getDataLayer();
+        dataLayer.setRecording(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        harness.close();
+    }
+
+    @Test
+    void journaledEventsReplayInOrderOnceTheContainerOpens() throws Exception {
+        harness.getTagManager().setHoldLoads(true);
+        harness.init("GTM-A", new JSONObject().put("journal", true));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("pushEvent journaled - not initialized", message(harness.call("pushEvent", event(i))));
+        }
+        assertTrue(dataLayer.getEvents().isEmpty());
+
+        harness.getTagManager().releaseLoads();
+        awaitEvents(5);
+        harness.call("pushEvent", event(5));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), eventIndices());
+    }
+
+    @Test
+    void actionsFailWhileNotReadyWithoutJournal() throws Exception {
+        harness.getTagManager().setHoldLoads(true);
+        harness.init("GTM-A", null);
+        RecordingCallbackContext callback = harness.call("pushEvent", event(0));
+        assertFalse(callback.isOk());
+        assertEquals("pushEvent failed - not initialized", message(callback));
+    }
+
+    @Test
+    void batchOperationsForASecondaryContainerCarryItsId() throws Exception {
+        harness.init("GTM-A", null);
+        harness.call("initGTM", new JSONArray().put(new JSONArray().put("GTM-A").put("GTM-B")).put(0).put(JSONObject.NULL));
+        JSONArray operations = new JSONArray()
+                .put(new JSONObject().put("method", "pushEvent").put("args", event(0)).put("containerId", "GTM-B"))
+                .put(new JSONObject().put("method", "pushEvent").put("args", event(1)));
+        RecordingCallbackContext callback = harness.call("pushBatch", new JSONArray().put(operations));
+        assertTrue(callback.isOk());
+
+        List<Map<String, Object>> pushes = dataLayer.getPushes();
+        assertEquals(4, pushes.size());
+        assertEquals("GTM-B", pushes.get(0).get("container-id"));
+        assertEquals(0, pushes.get(1).get("index"));
+        assertTrue(pushes.get(2).containsKey("container-id"));
+        assertNull(pushes.get(2).get("container-id"));
+        assertEquals(1, pushes.get(3).get("index"));
+        assertFalse(pushes.get(3).containsKey("container-id"));
+    }
+
+    @Test
+    void throttledEventsAreAnsweredWithoutAPush() throws Exception {
+        harness.init("GTM-A", new JSONObject().put("eventLimits", new JSONObject("{\"scroll\": {\"sampleRate\": 0}}")));
+        RecordingCallbackContext callback = harness.call("pushEvent",
+                new JSONArray().put(new JSONObject().put("event", "scroll")));
+        assertTrue(callback.isOk());
+        assertEquals("pushEvent throttled", message(callback));
+        assertEquals(0, dataLayer.getPushCount());
+    }
+
+    @Test
+    void invalidEventLimitsDoNotStopInit() throws Exception {
+        harness.init("GTM-A", new JSONObject().put("eventLimits", new JSONObject("{\"scroll\": 1}")));
+        assertTrue(harness.call("pushEvent", new JSONArray().put(new JSONObject().put("event", "scroll"))).isOk());
+    }
+
+    @Test
+    void largeTransactionIsOneEventUnlessChunkingIsOn() throws Exception {
+        harness.init("GTM-A", null);
+        harness.call("pushTransaction", Workloads.transactionArgs(500));
+        assertEquals(1, dataLayer.getEvents().size());
+        assertEquals(500, products(dataLayer.getEvents().get(0)).size());
+    }
+
+    @Test
+    void chunkedTransactionSendsTotalsOnce() throws Exception {
+        harness.init("GTM-A", new JSONObject().put("maxProductsPerEvent", 200));
+        harness.call("pushTransaction", Workloads.transactionArgs(500));
+        List<Map<String, Object>> events = dataLayer.getEvents();
+        assertEquals(3, events.size());
+        assertEquals(Arrays.asList(200, 200, 100), Arrays.asList(
+                products(events.get(0)).size(), products(events.get(1)).size(), products(events.get(2)).size()));
+        assertEquals("1234.56", actionField(events.get(0)).get("revenue"));
+        assertEquals("0", actionField(events.get(1)).get("revenue"));
+        assertEquals("T-500", actionField(events.get(2)).get("id"));
+    }
+
+    @Test
+    void invalidItemFailsTheTransactionBeforeAnythingIsPushed() throws Exception {
+        harness.init("GTM-A", new JSONObject().put("maxProductsPerEvent", 2));
+        JSONArray args = Workloads.transactionArgs(5);
+        args.getJSONArray(1).getJSONObject(4).put("price", "free");
+        assertFalse(harness.call("pushTransaction", args).isOk());
+        assertTrue(dataLayer.getEvents().isEmpty());
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dataLayer.getEvents().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, dataLayer.getEvents().size());
+    }
+
+    private List<Integer> eventIndices() {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (Map<String, Object> event : dataLayer.getEvents()) {
+            indices.add((Integer) event.get("index"));
+        }
+        return indices;
+    }
+
+    private static JSONArray event(int index) throws JSONException {
+        return new JSONArray().put(new JSONObject().put("event", "interaction").put("index", index));
+    }
+
+    private static String message(RecordingCallbackContext callback) {
+        return callback.getLast().getStrMessage();
+    }
+
+    private static Map<?, ?> purchase(Map<String, Object> event) {
+        return (Map<?, ?>) ((Map<?, ?>) event.get("ecommerce")).get("purchase");
+    }
+
+    private static List<?> products(Map<String, Object> event) {
+        return (List<?>) purchase(event).get("products");
+    }
+
+    private static Map<?, ?> actionField(Map<String, Object> event) {
+        return (Map<?, ?>) purchase(event).get("actionField");
+    }
+}
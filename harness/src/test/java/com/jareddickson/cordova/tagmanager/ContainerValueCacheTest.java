@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import com.google.android.gms.tagmanager.Container;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ContainerValueCacheTest {
+
+    private final ContainerValueCache cache = new ContainerValueCache();
+
+    @Test
+    void readsEveryTypeOfAValue() {
+        cache.reload(container(1, values("limit", 42L, "ratio", 0.5, "enabled", true, "name", "shop")));
+        assertEquals(42L, cache.get("limit").as("long"));
+        assertEquals(0.5, cache.get("ratio").as("double"));
+        assertEquals(true, cache.get("enabled").as("boolean"));
+        assertEquals("shop", cache.get("name").as("string"));
+        assertEquals("shop", cache.get("name").as(null));
+    }
+
+    @Test
+    void missingKeysReadAsTagManagerDefaults() {
+        cache.reload(container(1, values()));
+        ContainerValueCache.Value value = cache.get("missing");
+        assertEquals("", value.as("string"));
+        assertEquals(false, value.as("boolean"));
+        assertEquals(0L, value.as("long"));
+        assertEquals(0.0, value.as("double"));
+    }
+
+    @Test
+    void nothingIsReadWithoutAContainer() {
+        assertNull(cache.get("limit"));
+        assertNull(cache.getAll(Arrays.asList("limit")));
+        cache.reload(container(1, values("limit", 1L)));
+        cache.clear();
+        assertNull(cache.get("limit"));
+        assertNull(cache.getAll(Arrays.asList("limit")));
+    }
+
+    @Test
+    void aKeyIsReadFromTheContainerOnce() {
+        CountingContainer container = container(1, values("limit", 1L));
+        cache.reload(container);
+        cache.get("limit");
+        cache.get("limit");
+        cache.getAll(Arrays.asList("limit"));
+        assertEquals(1, container.reads);
+    }
+
+    @Test
+    void keysReadOnceAreReadFromEveryNewVersion() {
+        cache.reload(container(1, values("limit", 1L)));
+        assertEquals(1L, cache.get("limit").as("long"));
+        CountingContainer next = container(2, values("limit", 2L));
+        cache.reload(next);
+        assertEquals(1, next.reads);
+        assertEquals(2L, cache.get("limit").as("long"));
+    }
+
+    @Test
+    void addedKeysAreReadAtOnce() {
+        CountingContainer container = container(1, values("a", "x", "b", "y"));
+        cache.reload(container);
+        cache.addKeys(Arrays.asList("a", "b"));
+        assertEquals(2, container.reads);
+        assertEquals("y", cache.get("b").as("string"));
+        assertEquals(2, container.reads);
+    }
+
+    @Test
+    void getAllReturnsValuesOfOneVersion() {
+        cache.addKeys(Arrays.asList("a"));
+        cache.reload(container(1, values("a", "v1", "b", "v1")));
+        Map<String, ContainerValueCache.Value> first = cache.getAll(Arrays.asList("a", "b"));
+        assertEquals("v1", first.get("a").as("string"));
+        assertEquals("v1", first.get("b").as("string"));
+
+        cache.reload(container(2, values("a", "v2", "b", "v2")));
+        // The earlier result is a snapshot and does not change with the new version.
+        assertEquals("v1", first.get("b").as("string"));
+        Map<String, ContainerValueCache.Value> second = cache.getAll(Arrays.asList("a", "b"));
+        assertEquals("v2", second.get("a").as("string"));
+        assertEquals("v2", second.get("b").as("string"));
+        assertSame(second, cache.getAll(Arrays.asList("b", "a")));
+    }
+
+    private static Map<String, Object> values(Object... keysAndValues) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            values.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return values.isEmpty() ? Collections.<String, Object>emptyMap() : values;
+    }
+
+    private static CountingContainer container(int version, Map<String, Object> values) {
+        return new CountingContainer("GTM-" + version, values);
+    }
+
+    /**
+     * Counts key lookups; a Value reads every type of a key, starting with the string.
+     */
+    private static class CountingContainer extends Container {
+        int reads;
+
+        CountingContainer(String id, Map<String, Object> values) {
+            super(id, values, false);
+        }
+
+        @Override
+        public String getString(String key) {
+            reads++;
+            return super.getString(key);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DataLayerConverterTest {
+
+    @Test
+    void convertsNestedObjectsAndArraysToMapsAndLists() throws JSONException {
+        Map<String, Object> map = DataLayerConverter.toMap(new JSONObject(
+                "{\"event\": \"login\", \"user\": {\"id\": \"U1\", \"tags\": [\"a\", {\"b\": 2}]}, \"count\": 3}"));
+        assertEquals("login", map.get("event"));
+        assertEquals(3, map.get("count"));
+        Map<?, ?> user = (Map<?, ?>) map.get("user");
+        assertEquals("U1", user.get("id"));
+        List<?> tags = (List<?>) user.get("tags");
+        assertEquals("a", tags.get(0));
+        assertEquals(2, ((Map<?, ?>) tags.get(1)).get("b"));
+    }
+
+    @Test
+    void jsonNullBecomesNull() throws JSONException {
+        Map<String, Object> map = DataLayerConverter.toMap(new JSONObject("{\"ecommerce\": null, \"list\": [null]}"));
+        assertTrue(map.containsKey("ecommerce"));
+        assertNull(map.get("ecommerce"));
+        assertEquals(Arrays.asList((Object) null), map.get("list"));
+    }
+
+    @Test
+    void emptyObjectsAndArraysStayEmpty() throws JSONException {
+        assertTrue(DataLayerConverter.toMap(new JSONObject()).isEmpty());
+        Map<String, Object> map = DataLayerConverter.toMap(new JSONObject("{\"a\": {}, \"b\": []}"));
+        assertTrue(((Map<?, ?>) map.get("a")).isEmpty());
+        assertTrue(((List<?>) map.get("b")).isEmpty());
+    }
+
+    @Test
+    void productListConvertsTheRequestedRange() throws JSONException {
+        JSONArray cart = Workloads.cart(10);
+        List<Object> products = DataLayerConverter.productList(cart, 3, 6);
+        assertEquals(3, products.size());
+        Map<?, ?> first = (Map<?, ?>) products.get(0);
+        assertEquals("SKU-3", first.get("id"));
+        assertEquals("Product 3", first.get("name"));
+        assertEquals("3.99", first.get("price"));
+        assertEquals(1, first.get("quantity"));
+        assertEquals("Brand 3", first.get("brand"));
+        assertEquals("SKU-5", ((Map<?, ?>) products.get(2)).get("id"));
+    }
+
+    @Test
+    void productsWithoutOptionalFieldsHaveNoSuchKeys() throws JSONException {
+        JSONArray cart = new JSONArray("[{\"id\": \"A\", \"name\": \"Apple\", \"price\": \"1.50\"}]");
+        Map<?, ?> product = (Map<?, ?>) DataLayerConverter.productList(cart, 0, 1).get(0);
+        assertEquals(1, product.get("quantity"));
+        assertEquals("1.50", product.get("price"));
+        assertFalse(product.containsKey("brand"));
+        assertFalse(product.containsKey("coupon"));
+    }
+
+    @Test
+    void pricesAreWrittenInPlainNotation() throws JSONException {
+        JSONArray cart = new JSONArray("[{\"id\": \"A\", \"name\": \"Apple\", \"price\": \" 2.5 \"},"
+                + "{\"id\": \"B\", \"name\": \"Pear\", \"price\": \"1E+2\"},"
+                + "{\"id\": \"C\", \"name\": \"Plum\", \"price\": \"007.10\"},"
+                + "{\"id\": \"D\", \"name\": \"Fig\", \"price\": 0.0000001}]");
+        List<Object> products = DataLayerConverter.productList(cart, 0, 4);
+        assertEquals("2.5", ((Map<?, ?>) products.get(0)).get("price"));
+        assertEquals("100", ((Map<?, ?>) products.get(1)).get("price"));
+        assertEquals("7.10", ((Map<?, ?>) products.get(2)).get("price"));
+        assertEquals("0.00000010", ((Map<?, ?>) products.get(3)).get("price"));
+    }
+
+    @Test
+    void invalidProductFails() throws JSONException {
+        final JSONArray cart = new JSONArray("[{\"id\": \"A\", \"name\": \"Apple\", \"price\": \"cheap\"}]");
+        assertThrows(JSONException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                DataLayerConverter.productList(cart, 0, 1);
+            }
+        });
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A crash is simulated by dropping the journal without ending the replay and
+ * opening a new one on the same file, as the next process would.
+ */
+class EventJournalTest {
+
+    private static final int MAX_BYTES = 64 * 1024;
+
+    @TempDir
+    File dir;
+
+    private final List<EventJournal> opened = new ArrayList<EventJournal>();
+
+    @AfterEach
+    void tearDown() {
+        for (EventJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void runsActionsDirectlyWhenNothingIsHeldBack() {
+        EventJournal journal = open(MAX_BYTES);
+        assertFalse(journal.appendIfPending("pushEvent", args(0), null, true));
+        assertFalse(journal.appendIfPending("pushEvent", args(0), null, false));
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    void journalsWhileTheContainerIsNotReady() {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        assertTrue(journal.appendIfPending("pushEvent", args(0), null, false));
+        // Ready now, but the older record has to be replayed first.
+        assertTrue(journal.appendIfPending("pushEvent", args(1), null, true));
+        assertEquals(2, journal.size());
+    }
+
+    @Test
+    void recordsSurviveARestartInOrder() {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            journal.appendIfPending("pushEvent", args(i), null, false);
+        }
+        journal.close();
+
+        EventJournal restarted = open(MAX_BYTES);
+        assertEquals(3, restarted.size());
+        assertEquals(Arrays.asList(0, 1, 2), indices(restarted.beginReplay("GTM-A", true)));
+    }
+
+    @Test
+    void tornLastRecordIsDroppedAndTheFileRepaired() throws Exception {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        journal.appendIfPending("pushEvent", args(0), null, false);
+        journal.appendIfPending("pushEvent", args(1), null, false);
+        journal.close();
+        appendRaw(journalFile(), "{\"seq\":2,\"action\":\"pushEv");
+
+        EventJournal restarted = open(MAX_BYTES);
+        restarted.setEnabled(true);
+        assertEquals(2, restarted.size());
+        restarted.appendIfPending("pushEvent", args(3), null, false);
+        for (String line : lines(journalFile())) {
+            new JSONObject(line);
+        }
+        assertEquals(Arrays.asList(0, 1, 3), indices(restarted.beginReplay("GTM-A", true)));
+    }
+
+    @Test
+    void replayedRecordsAreNotReplayedAfterACrash() {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            journal.appendIfPending("pushEvent", args(i), null, false);
+        }
+        List<JSONObject> records = journal.beginReplay("GTM-A", true);
+        journal.markReplayed(records.get(0));
+        journal.markReplayed(records.get(1));
+        journal.close();
+
+        EventJournal restarted = open(MAX_BYTES);
+        assertEquals(1, restarted.size());
+        assertEquals(Arrays.asList(2), indices(restarted.beginReplay("GTM-A", true)));
+    }
+
+    @Test
+    void tornMarkerLineDoesNotSkipARecord() throws Exception {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        for (int i = 0; i < 13; i++) {
+            journal.appendIfPending("pushEvent", args(i), null, false);
+        }
+        journal.close();
+        // The write of "12\n" was cut after its first digit.
+        appendRaw(markerFile(), "1");
+
+        EventJournal restarted = open(MAX_BYTES);
+        assertEquals(13, restarted.size());
+        assertEquals(13, restarted.beginReplay("GTM-A", true).size());
+    }
+
+    @Test
+    void staleMarkerDoesNotMatchNewerRecords() throws Exception {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        journal.appendIfPending("pushEvent", args(0), null, false);
+        journal.markReplayed(journal.beginReplay("GTM-A", true).get(0));
+        // The next pass drops the replayed record; a crash before the marker is
+        // emptied leaves it naming a record that is gone.
+        assertTrue(journal.beginReplay("GTM-A", true).isEmpty());
+        journal.close();
+        appendRaw(markerFile(), "0\n");
+
+        EventJournal restarted = open(MAX_BYTES);
+        restarted.setEnabled(true);
+        restarted.appendIfPending("pushEvent", args(1), null, false);
+        assertEquals(Arrays.asList(1), indices(restarted.beginReplay("GTM-A", true)));
+    }
+
+    @Test
+    void replaysEachContainerOnItsOwn() {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        journal.appendIfPending("pushEvent", args(0), null, false);
+        journal.appendIfPending("pushEvent", args(1), "GTM-B", false);
+        journal.appendIfPending("pushEvent", args(2), "GTM-A", false);
+
+        List<JSONObject> secondary = journal.beginReplay("GTM-B", false);
+        assertEquals(Arrays.asList(1), indices(secondary));
+        // Actions for B wait behind its replay; the primary still waits for its own load.
+        assertTrue(journal.appendIfPending("pushEvent", args(3), "GTM-B", true));
+        journal.markReplayed(secondary.get(0));
+        assertEquals(Arrays.asList(3), indices(journal.beginReplay("GTM-B", false)));
+        journal.markReplayed(journal.beginReplay("GTM-B", false).get(0));
+        assertTrue(journal.beginReplay("GTM-B", false).isEmpty());
+        assertFalse(journal.appendIfPending("pushEvent", args(4), "GTM-B", true));
+
+        // Records without a container id belong to the primary container.
+        assertEquals(Arrays.asList(0, 2), indices(journal.beginReplay("GTM-A", true)));
+    }
+
+    @Test
+    void cutShortReplayKeepsTheRestForTheNextLoad() {
+        EventJournal journal = open(MAX_BYTES);
+        journal.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            journal.appendIfPending("pushEvent", args(i), "GTM-B", false);
+        }
+        List<JSONObject> records = journal.beginReplay("GTM-B", false);
+        journal.markReplayed(records.get(0));
+        journal.endReplay("GTM-B", false);
+        // Marking a record after the replay ended has no effect.
+        journal.markReplayed(records.get(1));
+        assertEquals(2, journal.size());
+        assertEquals(Arrays.asList(1, 2), indices(journal.beginReplay("GTM-B", false)));
+    }
+
+    @Test
+    void compactionDuringReplayKeepsPendingCountsRight() {
+        EventJournal journal = open(4 * 1024);
+        journal.setEnabled(true);
+        for (int i = 0; i < 10; i++) {
+            journal.appendIfPending("pushEvent", args(i), null, false);
+        }
+        List<JSONObject> records = journal.beginReplay("GTM-A", true);
+        journal.markReplayed(records.get(0));
+        // Another container's records fill the journal and compact the ones being replayed away.
+        for (int i = 100; i < 160; i++) {
+            journal.appendIfPending("pushEvent", args(i), "GTM-B", false);
+        }
+        for (JSONObject record : records.subList(1, records.size())) {
+            journal.markReplayed(record);
+        }
+        // The replayed and in-flight records were not lost, only B's oldest ones.
+        int droppedOfB = 60 - indices(journal.beginReplay("GTM-B", false)).size();
+        journal.endReplay("GTM-B", false);
+        assertTrue(droppedOfB > 0);
+        assertEquals(droppedOfB, journal.getDropped());
+        // Nothing of the primary container is pending, so its actions run directly.
+        assertTrue(journal.beginReplay("GTM-A", true).isEmpty());
+        assertFalse(journal.appendIfPending("pushEvent", args(200), null, true));
+    }
+
+    @Test
+    void compactionKeepsTheNewestRecords() {
+        EventJournal journal = open(2 * 1024);
+        journal.setEnabled(true);
+        for (int i = 0; i < 100; i++) {
+            journal.appendIfPending("pushEvent", args(i), null, false);
+        }
+        List<Integer> kept = indices(journal.beginReplay("GTM-A", true));
+        assertTrue(journal.getDropped() > 0);
+        assertEquals(100, kept.size() + journal.getDropped());
+        assertEquals(Integer.valueOf(99), kept.get(kept.size() - 1));
+        for (int i = 1; i < kept.size(); i++) {
+            assertEquals(kept.get(i - 1) + 1, (int) kept.get(i));
+        }
+    }
+
+    @Test
+    void recordLargerThanTheJournalIsDropped() {
+        EventJournal journal = open(256);
+        journal.setEnabled(true);
+        JSONArray huge = new JSONArray().put(new String(new char[512]).replace('\0', 'x'));
+        assertTrue(journal.appendIfPending("pushEvent", huge, null, false));
+        assertEquals(1, journal.getDropped());
+        assertEquals(0, journal.size());
+    }
+
+    private EventJournal open(int maxBytes) {
+        EventJournal journal = new EventJournal(journalFile(), maxBytes);
+        opened.add(journal);
+        return journal;
+    }
+
+    private File journalFile() {
+        return new File(dir, "journal");
+    }
+
+    private File markerFile() {
+        return new File(dir, "journal.replayed");
+    }
+
+    private static JSONArray args(int index) {
+        try {
+            return new JSONArray().put(new JSONObject().put("event", "e").put("index", index));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Integer> indices(List<JSONObject> records) {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (JSONObject record : records) {
+            indices.add(record.optJSONArray("args").optJSONObject(0).optInt("index"));
+        }
+        return indices;
+    }
+
+    private static void appendRaw(File file, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventRingBufferTest {
+
+    private final List<String> dropped = new ArrayList<String>();
+    private final EventRingBuffer buffer = new EventRingBuffer(4, new EventRingBuffer.DropListener() {
+        @Override
+        public void onDropped(String method, PendingBatch batch, int index) {
+            dropped.add(method);
+        }
+    });
+
+    @Test
+    void pollsInOfferOrderAcrossTheWrap() {
+        offer("a", "b", "c");
+        assertEquals(asList("a", "b"), poll(2));
+        offer("d", "e", "f");
+        assertEquals(asList("c", "d", "e", "f"), poll(10));
+        assertTrue(buffer.isEmpty());
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    void pollFillsEveryFieldAndClearsTheSlotItTook() {
+        JSONArray args = new JSONArray().put("x");
+        buffer.offer("pushEvent", args, "GTM-B", null, 3);
+        EventRingBuffer.Slot slot = new EventRingBuffer.Slot();
+        assertTrue(buffer.poll(slot));
+        assertEquals("pushEvent", slot.method);
+        assertEquals(args, slot.args);
+        assertEquals("GTM-B", slot.containerId);
+        assertEquals(3, slot.index);
+        assertFalse(buffer.poll(slot));
+    }
+
+    @Test
+    void dropOldestEvictsTheOldestEvent() {
+        offer("a", "b", "c", "d", "e");
+        assertEquals(asList("a"), dropped);
+        assertEquals(asList("b", "c", "d", "e"), poll(10));
+    }
+
+    @Test
+    void dropNewestDiscardsTheIncomingEvent() {
+        buffer.configure(4, EventRingBuffer.OverflowPolicy.DROP_NEWEST);
+        offer("a", "b", "c", "d", "e");
+        assertEquals(asList("e"), dropped);
+        assertEquals(asList("a", "b", "c", "d"), poll(10));
+    }
+
+    @Test
+    void rejectKeepsBufferedEventsAndReportsNoRoom() {
+        buffer.configure(4, EventRingBuffer.OverflowPolicy.REJECT);
+        offer("a", "b", "c");
+        assertTrue(buffer.hasRoomFor(1));
+        assertFalse(buffer.hasRoomFor(2));
+        offer("d", "e");
+        assertEquals(asList("e"), dropped);
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    void sampleKeepsOneInFourPastThreeQuartersFull() {
+        buffer.configure(16, EventRingBuffer.OverflowPolicy.SAMPLE);
+        for (int i = 0; i < 12; i++) {
+            offer("fill" + i);
+        }
+        assertTrue(dropped.isEmpty());
+        for (int i = 0; i < 8; i++) {
+            offer("late" + i);
+        }
+        assertEquals(14, buffer.size());
+        assertEquals(asList("late1", "late2", "late3", "late5", "late6", "late7"), dropped);
+    }
+
+    @Test
+    void shrinkingDropsTheOldestAndKeepsOrder() {
+        offer("a", "b", "c");
+        poll(1);
+        offer("d", "e");
+        buffer.configure(2, EventRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertEquals(asList("b", "c"), dropped);
+        assertEquals(asList("d", "e"), poll(10));
+    }
+
+    @Test
+    void growingKeepsEventsInOrder() {
+        offer("a", "b", "c", "d");
+        poll(2);
+        offer("e", "f");
+        buffer.configure(8, EventRingBuffer.OverflowPolicy.DROP_OLDEST);
+        offer("g");
+        assertTrue(dropped.isEmpty());
+        assertEquals(asList("c", "d", "e", "f", "g"), poll(10));
+    }
+
+    private void offer(String... methods) {
+        for (String method : methods) {
+            buffer.offer(method, null, null, null, 0);
+        }
+    }
+
+    private List<String> poll(int max) {
+        List<String> polled = new ArrayList<String>();
+        EventRingBuffer.Slot slot = new EventRingBuffer.Slot();
+        while (polled.size() < max && buffer.poll(slot)) {
+            polled.add(slot.method);
+        }
+        return polled;
+    }
+
+    private static List<String> asList(String... values) {
+        List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
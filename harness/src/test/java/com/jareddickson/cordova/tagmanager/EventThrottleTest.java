@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventThrottleTest {
+
+    private final EventThrottle throttle = new EventThrottle();
+
+    @Test
+    void allowsEverythingWithoutLimits() throws JSONException {
+        assertTrue(throttle.allow("scroll"));
+        assertTrue(throttle.allow(null));
+        throttle.configure(new JSONObject());
+        assertTrue(throttle.allow("scroll"));
+    }
+
+    @Test
+    void zeroSampleRateDropsEveryEvent() throws JSONException {
+        throttle.configure(new JSONObject("{\"scroll\": {\"sampleRate\": 0}}"));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(throttle.allow("scroll"));
+        }
+        assertTrue(throttle.allow("click"));
+    }
+
+    @Test
+    void sampleRateKeepsAboutThatShare() throws JSONException {
+        throttle.configure(new JSONObject("{\"scroll\": {\"sampleRate\": 0.25}}"));
+        int allowed = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (throttle.allow("scroll")) {
+                allowed++;
+            }
+        }
+        assertTrue(allowed > 4000 && allowed < 6000, "allowed " + allowed);
+    }
+
+    @Test
+    void rateLimitAllowsTheBurstThenRefills() throws Exception {
+        throttle.configure(new JSONObject("{\"video-progress\": {\"ratePerSecond\": 100, \"burst\": 3}}"));
+        assertEquals(3, allowedInARow("video-progress", 10));
+        Thread.sleep(50);
+        assertTrue(throttle.allow("video-progress"));
+    }
+
+    @Test
+    void burstDefaultsToTheRate() throws JSONException {
+        throttle.configure(new JSONObject("{\"tick\": {\"ratePerSecond\": 5}}"));
+        assertEquals(5, allowedInARow("tick", 20));
+    }
+
+    @Test
+    void wildcardAppliesToUnlistedAndUnnamedEvents() throws JSONException {
+        throttle.configure(new JSONObject("{\"*\": {\"sampleRate\": 0}, \"purchase\": {}}"));
+        assertFalse(throttle.allow("scroll"));
+        assertFalse(throttle.allow(null));
+        assertTrue(throttle.allow("purchase"));
+    }
+
+    @Test
+    void eventsHaveSeparateBuckets() throws JSONException {
+        throttle.configure(new JSONObject("{\"a\": {\"ratePerSecond\": 1}, \"b\": {\"ratePerSecond\": 1}}"));
+        assertTrue(throttle.allow("a"));
+        assertFalse(throttle.allow("a"));
+        assertTrue(throttle.allow("b"));
+    }
+
+    @Test
+    void invalidEntryFailsAndKeepsTheOldLimits() throws JSONException {
+        throttle.configure(new JSONObject("{\"scroll\": {\"sampleRate\": 0}}"));
+        assertThrows(JSONException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                throttle.configure(new JSONObject("{\"scroll\": 5}"));
+            }
+        });
+        assertFalse(throttle.allow("scroll"));
+    }
+
+    @Test
+    void reconfiguringWithNullRemovesLimits() throws JSONException {
+        throttle.configure(new JSONObject("{\"scroll\": {\"sampleRate\": 0}}"));
+        throttle.configure(null);
+        assertTrue(throttle.allow("scroll"));
+    }
+
+    private int allowedInARow(String event, int attempts) {
+        int allowed = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (throttle.allow(event)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImpressionAggregatorTest {
+
+    private static final long LONG_WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final LinkedBlockingQueue<Emitted> emitted = new LinkedBlockingQueue<Emitted>();
+    private final ImpressionAggregator aggregator = new ImpressionAggregator(scheduler, new ImpressionAggregator.Sink() {
+        @Override
+        public void emit(String containerId, String list, String currencyCode, List<Object> impressions, Object contentName) {
+            emitted.add(new Emitted(containerId, list, currencyCode, impressions, contentName));
+        }
+    });
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void disabledUntilAWindowIsSet() {
+        assertFalse(aggregator.isEnabled());
+        aggregator.configure(LONG_WINDOW, 10);
+        assertTrue(aggregator.isEnabled());
+        aggregator.configure(0, 10);
+        assertFalse(aggregator.isEnabled());
+    }
+
+    @Test
+    void emitsOneEventWhenTheBatchFills() {
+        aggregator.configure(LONG_WINDOW, 3);
+        add(null, "Search", "EUR", "a", "b");
+        assertTrue(emitted.isEmpty());
+        add(null, "Search", "EUR", "c");
+        Emitted batch = emitted.poll();
+        assertNotNull(batch);
+        assertEquals(Arrays.asList("a", "b", "c"), batch.ids());
+        assertEquals("Search", batch.list);
+        assertEquals("EUR", batch.currencyCode);
+        assertEquals("name-a", batch.contentName);
+        assertTrue(emitted.isEmpty());
+    }
+
+    @Test
+    void reportsAProductSeenAgainWithinTheWindowOnce() {
+        aggregator.configure(LONG_WINDOW, 10);
+        add(null, "Search", "EUR", "a", "b", "a");
+        aggregator.flushAll();
+        assertEquals(Arrays.asList("a", "b"), emitted.poll().ids());
+        // Still inside the window after the flush, so not reported again.
+        add(null, "Search", "EUR", "a");
+        aggregator.flushAll();
+        assertNull(emitted.poll());
+    }
+
+    @Test
+    void keepsContainersListsAndCurrenciesApart() {
+        aggregator.configure(LONG_WINDOW, 10);
+        add(null, "Search", "EUR", "a");
+        add("GTM-B", "Search", "EUR", "a");
+        add(null, "Related", "EUR", "a");
+        add(null, "Search", "USD", "a");
+        aggregator.flushAll();
+        List<String> keys = new ArrayList<String>();
+        Emitted batch;
+        while ((batch = emitted.poll()) != null) {
+            assertEquals(Arrays.asList("a"), batch.ids());
+            keys.add(batch.containerId + "/" + batch.list + "/" + batch.currencyCode);
+        }
+        Collections.sort(keys);
+        assertEquals(Arrays.asList("GTM-B/Search/EUR", "null/Related/EUR", "null/Search/EUR", "null/Search/USD"), keys);
+    }
+
+    @Test
+    void flushesWhenTheWindowCloses() throws InterruptedException {
+        aggregator.configure(50, 10);
+        add("GTM-B", "Search", "EUR", "a", "b");
+        Emitted batch = emitted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals("GTM-B", batch.containerId);
+        assertEquals(Arrays.asList("a", "b"), batch.ids());
+    }
+
+    @Test
+    void reconfiguringFlushesWhatIsBuffered() {
+        aggregator.configure(LONG_WINDOW, 10);
+        add(null, "Search", "EUR", "a");
+        aggregator.configure(LONG_WINDOW, 5);
+        assertEquals(Arrays.asList("a"), emitted.poll().ids());
+    }
+
+    @Test
+    void flushAllWithNothingBufferedEmitsNothing() {
+        aggregator.configure(LONG_WINDOW, 10);
+        aggregator.flushAll();
+        assertTrue(emitted.isEmpty());
+    }
+
+    private void add(String containerId, String list, String currencyCode, String... ids) {
+        for (String id : ids) {
+            Map<String, Object> item = Collections.<String, Object>singletonMap("id", id);
+            aggregator.add(containerId, list, currencyCode, id, item, "name-" + id);
+        }
+    }
+
+    private static class Emitted {
+        final String containerId;
+        final String list;
+        final String currencyCode;
+        final List<Object> impressions;
+        final Object contentName;
+
+        Emitted(String containerId, String list, String currencyCode, List<Object> impressions, Object contentName) {
+            this.containerId = containerId;
+            this.list = list;
+            this.currencyCode = currencyCode;
+            this.impressions = impressions;
+            this.contentName = contentName;
+        }
+
+        List<String> ids() {
+            List<String> ids = new ArrayList<String>();
+            for (Object impression : impressions) {
+                ids.add((String) ((Map<?, ?>) impression).get("id"));
+            }
+            return ids;
+        }
+    }
+}
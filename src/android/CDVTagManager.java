@@ -20,441 +20,1018 @@
  * THE SOFTWARE.
  */
 
+
 package com.jareddickson.cordova.tagmanager;
 
 import android.content.Context;
-import android.support.annotation.NonNull;
 import android.util.Log;
 
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.tagmanager.Container;
-import com.google.android.gms.tagmanager.ContainerHolder;
 import com.google.android.gms.tagmanager.DataLayer;
-import com.google.android.gms.tagmanager.TagManager;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class echoes a string called from JavaScript.
  */
-public class CDVTagManager extends CordovaPlugin {
+public class CDVTagManager extends CordovaPlugin implements ContainerLoader.Listener {
 
-    private static final long TIMEOUT_FOR_CONTAINER_OPEN_MILLISECONDS = 2000;
     private static final String TAG = "CDVTagManager";
-    private boolean initialized = false;
+    // Checked by www/TagManager.js, which queues the batch again when it sees it.
+    private static final String BUFFER_FULL_ERROR = "pushBatch failed - buffer full";
+    // Carts are sent as a single event unless maxProductsPerEvent is set: split
+    // purchase and checkout hits count as extra transactions and checkout hits.
+    private static final int DEFAULT_MAX_PRODUCTS_PER_EVENT = 0;
+    private static final String JOURNAL_FILE_NAME = "tagmanager-journal";
+    private static final String CONTAINER_ID_KEY = "container-id";
+    // config.xml preference naming the containers, comma separated, to start loading
+    // before initGTM is called.
+    private static final String CONTAINER_ID_PREFERENCE = "GTMContainerId";
+    // Shared so a throttled push does not build a message.
+    private static final String THROTTLED_MESSAGE = "pushEvent throttled";
+
+    // Action handlers keyed by action name, sized so the table never rehashes.
+    private final Map<String, ActionHandler> handlers = new HashMap<String, ActionHandler>(32);
+    private volatile ActionListener actionListener;
+    private final PluginMetrics metrics;
+    private ScheduledFuture<?> metricsLogTask;
+
+    private TagManagerSession session;
+    private EventJournal journal;
+    private DispatchScheduler dispatcher;
+    private final List<CallbackContext> readyCallbacks = new CopyOnWriteArrayList<CallbackContext>();
+    private volatile boolean asyncExecution = false;
+    private volatile boolean leanResponses = false;
+    private volatile int maxProductsPerEvent = DEFAULT_MAX_PRODUCTS_PER_EVENT;
+    private final AtomicLong sequence = new AtomicLong();
+    private final EventThrottle throttle = new EventThrottle();
+    // Container value holding an eventLimits object that overrides the initGTM one.
+    private volatile String eventLimitsKey;
+
+    // Single worker so DataLayer pushes keep the order in which they were called.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Held while an action or a flush touches the DataLayer, so their push-then-clear
+    // sequences cannot interleave when they run on different threads.
+    private final Object pushLock = new Object();
+    // Container the running action is routed to, or null for the primary one. Guarded by pushLock.
+    private String routedContainerId;
+    private final EventRingBuffer buffer = new EventRingBuffer(EventRingBuffer.DEFAULT_CAPACITY, new EventRingBuffer.DropListener() {
+        @Override
+        public void onDropped(String method, PendingBatch batch, int index) {
+            batch.fail(index, method, method + " dropped - buffer full");
+            ActionHandler handler = handlers.get(method);
+            if (handler != null) {
+                notifyActionCompleted(handler, Outcome.DROPPED, 0);
+            }
+        }
+    });
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final ImpressionAggregator impressions = new ImpressionAggregator(executor, new ImpressionAggregator.Sink() {
+        @Override
+        public void emit(String containerId, String list, String currencyCode, List<Object> items, Object contentName) {
+            pushImpressions(containerId, currencyCode, items, contentName);
+        }
+    });
 
 
     public CDVTagManager() {
+        registerActions();
+        metrics = new PluginMetrics(handlers.keySet());
+        actionListener = metrics;
     }
 
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
+        session = createSession(cordova.getActivity(), executor);
+        journal = new EventJournal(new File(session.getContext().getFilesDir(), JOURNAL_FILE_NAME), EventJournal.DEFAULT_MAX_BYTES);
+        // initialize runs on the UI thread; read the journal left by a previous process on the worker.
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal.recover();
+            }
+        });
+        dispatcher = new DispatchScheduler(session.getContext(), session.getTagManager(), executor);
+
+        String containerIds = preferences.getString(CONTAINER_ID_PREFERENCE, "");
+        if (!containerIds.isEmpty()) {
+            Map<String, Long> containers = new LinkedHashMap<String, Long>();
+            for (String id : containerIds.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    containers.put(id.trim(), 0L);
+                }
+            }
+            session.load(containers);
+        }
     }
 
     @Override
-    public boolean execute(String action, JSONArray args, CallbackContext callback) {
-        if (action.equals("initGTM")) {
-            try {
-                // Set the dispatch interval
-                // GAServiceManager.getInstance().setLocalDispatchPeriod(args.getInt(1));
-                TagManager tagManager = TagManager.getInstance(this.cordova.getActivity().getApplicationContext());
-                tagManager.setVerboseLoggingEnabled(true);
-                String containerId = args.getString(0);
-                Context context = this.cordova.getActivity().getApplicationContext();
-                int defaultContainerBinary = context.getResources().getIdentifier("defaultcontainer_binary", "raw", context.getPackageName());
-                PendingResult<ContainerHolder> pending = tagManager.loadContainerPreferNonDefault(containerId, defaultContainerBinary);
-                pending.setResultCallback(new ResultCallback<ContainerHolder>() {
-                    @Override
-                    public void onResult(@NonNull ContainerHolder containerHolder) {
-                        ContainerHolderSingleton.setContainerHolder(containerHolder);
-                        Container container = containerHolder.getContainer();
-                        if (!containerHolder.getStatus().isSuccess()) {
-                            Log.e(TAG, "Failure loading container");
-                            return;
-                        }
-                        ContainerLoadedCallback.registerCallbacksForContainer(container);
-                        containerHolder.setContainerAvailableListener(new ContainerLoadedCallback());
-                        initialized = true;
+    public void onPause(boolean multitasking) {
+        flushImpressionsOnWorker();
+        if (session.isReady(null)) {
+            dispatcher.dispatchNow();
+        }
+        super.onPause(multitasking);
+    }
 
-                    }
-                }, TIMEOUT_FOR_CONTAINER_OPEN_MILLISECONDS, TimeUnit.MILLISECONDS);
+    @Override
+    public void onDestroy() {
+        // Queued ahead of the shutdown, so the flush still runs before the worker stops.
+        flushImpressionsOnWorker();
+        executor.shutdown();
+        journal.close();
+        super.onDestroy();
+    }
 
-                callback.success("initGTM - id = " + args.getString(0) + "; interval = " + args.getInt(1) + " seconds");
-                return true;
-            } catch (final Exception e) {
-                callback.error(e.getMessage());
+    @Override
+    public boolean execute(String action, final JSONArray args, final CallbackContext callback) {
+        final ActionHandler handler = handlers.get(action);
+        if (handler == null) {
+            return false;
+        }
+        if (asyncExecution) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executeAction(handler, args, null, callback);
+                }
+            });
+        } else {
+            executeAction(handler, args, null, callback);
+        }
+        return true;
+    }
+
+    /**
+     * Flushes buffered impressions on the worker, like the timed flushes. The
+     * lifecycle callbacks run on the UI thread, which must not wait for pushLock
+     * while the worker holds it for a large transaction or a journal replay.
+     */
+    private void flushImpressionsOnWorker() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                impressions.flushAll();
+            }
+        });
+    }
+
+    /**
+     * Creates the session every action runs against. Overridden to run the
+     * plugin against a stand-in TagManagerClient, e.g. to measure its own cost off device.
+     *
+     * @param scheduler the plugin's worker, which containers schedule their refreshes on
+     */
+    TagManagerSession createSession(Context context, ScheduledExecutorService scheduler) {
+        return new TagManagerSession(context, this, scheduler);
+    }
+
+    @Override
+    public void onStateChanged(ContainerLoader loader, ContainerLoader.State state) {
+        if (state == ContainerLoader.State.IDLE || state == ContainerLoader.State.LOADING) {
+            return;
+        }
+        if (loader.isReady()) {
+            if (loader == session.getContainer()) {
+                applyContainerEventLimits(loader);
             }
-        } else if (action.equals("exitGTM")) {
+            replayJournal(loader);
+        }
+        for (CallbackContext callback : readyCallbacks) {
+            sendState(callback, loader);
+        }
+    }
+
+    private void sendState(CallbackContext callback, ContainerLoader loader) {
+        try {
+            JSONObject message = new JSONObject();
+            message.put("state", loader.getState().name());
+            message.put("containerId", loader.getContainerId());
+            PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+            result.setKeepCallback(true);
+            callback.sendPluginResult(result);
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to report container state", e);
+        }
+    }
+
+    /**
+     * Sets the listener notified after every action, e.g. to collect metrics.
+     */
+    void setActionListener(ActionListener listener) {
+        actionListener = listener;
+    }
+
+    /**
+     * Journals deferrable actions that cannot run yet, and runs everything else.
+     *
+     * @param containerId the container the action is meant for, or null for the primary one
+     */
+    private void executeAction(ActionHandler handler, JSONArray args, String containerId, CallbackContext callback) {
+        if (handler.throttled && !throttle.allow(eventName(args))) {
+            callback.success(THROTTLED_MESSAGE);
+            notifyActionCompleted(handler, Outcome.THROTTLED, 0);
+            return;
+        }
+        if (handler.deferrable && journal.appendIfPending(handler.name, args, containerId, session.isReady(containerId))) {
+            callback.success(handler.name + " journaled - not initialized");
+            notifyActionCompleted(handler, Outcome.JOURNALED, 0);
+            return;
+        }
+        runAction(handler, args, containerId, callback);
+    }
+
+    /**
+     * Runs an action through the common pipeline: initialization gating,
+     * execution, error reporting and timing.
+     */
+    private void runAction(ActionHandler handler, JSONArray args, String containerId, CallbackContext callback) {
+        long startNanos = System.nanoTime();
+        Outcome outcome;
+        if (handler.requiresInitialization && !session.isReady(containerId)) {
+            callback.error(handler.name + " failed - not initialized");
+            outcome = Outcome.NOT_INITIALIZED;
+        } else {
             try {
-                initialized = false;
-                callback.success("exitGTM");
-                return true;
+                synchronized (pushLock) {
+                    // All containers share one DataLayer, so events meant for a specific
+                    // container carry its id for the container's triggers to match on.
+                    boolean routed = containerId != null && handler.deferrable;
+                    if (routed) {
+                        session.getDataLayer().push(CONTAINER_ID_KEY, containerId);
+                        routedContainerId = containerId;
+                    }
+                    try {
+                        handler.execute(args, callback, startNanos);
+                    } finally {
+                        if (routed) {
+                            routedContainerId = null;
+                            session.getDataLayer().push(CONTAINER_ID_KEY, null);
+                        }
+                    }
+                }
+                outcome = Outcome.SUCCEEDED;
             } catch (final Exception e) {
                 callback.error(e.getMessage());
+                outcome = Outcome.FAILED;
             }
-        } else if (action.equals("dispatch")) {
-            if (initialized) {
-                try {
-                    TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).dispatch();
-                    callback.success("dispatch sent");
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
-                }
-            } else {
-                callback.error("dispatch failed - not initialized");
-            }
-        } else if (action.equals("trackEvent")) {
-            if (initialized) {
-                try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    int value;
+        }
+        notifyActionCompleted(handler, outcome, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the event key of a pushEvent payload, read without converting it
+     */
+    private static String eventName(JSONArray args) {
+        JSONObject payload = args.optJSONObject(0);
+        return payload != null ? payload.optString("event", null) : null;
+    }
+
+    /**
+     * Replaces the initGTM event limits with the ones held by the primary
+     * container, when an eventLimitsKey was given.
+     */
+    private void applyContainerEventLimits(ContainerLoader loader) {
+        String key = eventLimitsKey;
+        if (key == null) {
+            return;
+        }
+        ContainerValueCache.Value value = loader.getValues().get(key);
+        if (value == null || value.string == null || value.string.isEmpty()) {
+            return;
+        }
+        try {
+            throttle.configure(new JSONObject(value.string));
+            Log.i(TAG, "Event limits loaded from container value " + key);
+        } catch (JSONException e) {
+            Log.w(TAG, "Ignoring invalid event limits in container value " + key, e);
+        }
+    }
+
+    private void notifyActionCompleted(ActionHandler handler, Outcome outcome, long elapsedNanos) {
+        ActionListener listener = actionListener;
+        if (listener != null) {
+            listener.onActionCompleted(handler.name, outcome, elapsedNanos);
+        }
+    }
+
+    private JSONObject metricsSnapshot() throws JSONException {
+        JSONObject snapshot = metrics.snapshot();
+        ContainerLoader primary = session.getContainer();
+        snapshot.put("containerState", primary != null ? primary.getState().name() : ContainerLoader.State.IDLE.name());
+        snapshot.put("containerLoadMs", primary != null ? primary.getLoadMillis() : -1);
+        JSONObject containers = new JSONObject();
+        for (ContainerLoader container : session.getContainers()) {
+            JSONObject state = new JSONObject();
+            state.put("state", container.getState().name());
+            state.put("loadMs", container.getLoadMillis());
+            containers.put(container.getContainerId(), state);
+        }
+        snapshot.put("containers", containers);
+        snapshot.put("bufferDepth", buffer.size());
+        snapshot.put("journaledPending", journal.size());
+        snapshot.put("journalDropped", journal.getDropped());
+        return snapshot;
+    }
+
+    private synchronized void scheduleMetricsLog(long intervalMillis) {
+        if (metricsLogTask != null) {
+            metricsLogTask.cancel(false);
+            metricsLogTask = null;
+        }
+        if (intervalMillis > 0) {
+            metricsLogTask = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        value = args.getInt(3);
-                    } catch (Exception e) {
-                        value = 0;
+                        Log.i(TAG, "Metrics: " + metricsSnapshot());
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Unable to log metrics", e);
                     }
-                    dataLayer.push(DataLayer.mapOf("event", "interaction", "target", args.getString(0), "action", args.getString(1), "target-properties", args.getString(2), "value", value));
-                    callback.success("trackEvent - category = " + args.getString(0) + "; action = " + args.getString(1) + "; label = " + args.getString(2) + "; value = " + value);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
                 }
-            } else {
-                callback.error("trackEvent failed - not initialized");
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs buffered batch operations in order, on the worker thread in async
+     * mode and on the calling bridge thread otherwise.
+     */
+    private void scheduleDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (!asyncExecution) {
+            drainBuffer();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainBuffer();
             }
-        } else if (action.equals("pushEvent")) {
-            if (initialized) {
-                try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    dataLayer.push(objectMap(args.getJSONObject(0)));
-                    callback.success("pushEvent: " + dataLayer.toString());
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
+        });
+    }
+
+    /**
+     * Runs buffered operations until the buffer is empty. Only called by the
+     * thread that set drainScheduled, so operations never run concurrently.
+     */
+    private void drainBuffer() {
+        EventRingBuffer.Slot slot = new EventRingBuffer.Slot();
+        while (true) {
+            if (!buffer.poll(slot)) {
+                drainScheduled.set(false);
+                if (buffer.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+                    return;
                 }
+                continue;
+            }
+            BatchCallbackContext itemCallback = new BatchCallbackContext();
+            ActionHandler handler = handlers.get(slot.method);
+            if (handler != null && !handler.name.equals("pushBatch")) {
+                executeAction(handler, slot.args, slot.containerId, itemCallback);
             } else {
-                callback.error("pushEvent failed - not initialized");
+                itemCallback.error(slot.method + " failed - unknown action");
+            }
+            try {
+                slot.batch.complete(slot.index, itemCallback.toResult(slot.method));
+            } catch (JSONException e) {
+                slot.batch.fail(slot.index, slot.method, e.getMessage());
+            }
+            slot.batch = null;
+            slot.args = null;
+            slot.containerId = null;
+        }
+    }
+
+    /**
+     * Replays the actions journaled for a container that became ready, in order
+     * on the worker thread. Actions for that container arriving meanwhile are
+     * journaled behind them, so call order is kept; records of containers that
+     * are not ready stay in the journal.
+     */
+    private void replayJournal(final ContainerLoader loader) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String containerId = loader.getContainerId();
+                if (containerId == null) {
+                    return;
+                }
+                boolean primary = loader == session.getContainer();
+                CallbackContext callback = new JournalCallbackContext();
+                List<JSONObject> records;
+                while (!(records = journal.beginReplay(containerId, primary)).isEmpty()) {
+                    Log.i(TAG, "Replaying " + records.size() + " journaled events for " + containerId);
+                    for (JSONObject record : records) {
+                        String recordContainerId = record.optString("containerId", null);
+                        if (!session.isReady(recordContainerId)) {
+                            // Released or replaced meanwhile; keep the rest for its next load.
+                            journal.endReplay(containerId, primary);
+                            return;
+                        }
+                        ActionHandler handler = handlers.get(record.optString("action"));
+                        JSONArray args = record.optJSONArray("args");
+                        if (handler != null && args != null) {
+                            runAction(handler, args, recordContainerId, callback);
+                        }
+                        journal.markReplayed(record);
+                    }
+                }
             }
-        } else if (action.equals("trackPage")) {
-            if (initialized) {
+        });
+    }
+
+    private void register(ActionHandler handler) {
+        handlers.put(handler.name, handler);
+    }
+
+    private void registerActions() {
+        register(new ActionHandler("initGTM", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                JSONObject options = args.optJSONObject(2);
+                asyncExecution = options != null && options.optBoolean("async", false);
+                leanResponses = options != null && options.optBoolean("leanResponses", false);
+                maxProductsPerEvent = options != null ? options.optInt("maxProductsPerEvent", DEFAULT_MAX_PRODUCTS_PER_EVENT) : DEFAULT_MAX_PRODUCTS_PER_EVENT;
+                journal.setEnabled(options != null && options.optBoolean("journal", false));
+                impressions.configure(
+                        options != null ? options.optLong("impressionWindowMs", 0) : 0,
+                        options != null ? options.optInt("impressionBatchSize", ImpressionAggregator.DEFAULT_MAX_BATCH_SIZE) : ImpressionAggregator.DEFAULT_MAX_BATCH_SIZE);
+                scheduleMetricsLog(options != null ? options.optLong("metricsLogIntervalMs", 0) : 0);
+                buffer.configure(
+                        options != null ? options.optInt("bufferCapacity", EventRingBuffer.DEFAULT_CAPACITY) : EventRingBuffer.DEFAULT_CAPACITY,
+                        EventRingBuffer.OverflowPolicy.parse(options != null ? options.optString("overflowPolicy") : null));
                 try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    dataLayer.pushEvent("content-view", DataLayer.mapOf("content-name", args.get(0)));
-                    TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).dispatch();
+                    throttle.configure(options != null ? options.optJSONObject("eventLimits") : null);
+                } catch (JSONException e) {
+                    // Limits are optional; a bad entry must not keep the container from loading.
+                    Log.w(TAG, "Ignoring invalid eventLimits", e);
+                    throttle.configure(null);
+                }
+                eventLimitsKey = options != null ? options.optString("eventLimitsKey", null) : null;
+                dispatcher.start(args.optInt(1, 0),
+                        options != null ? options.optLong("dispatchCoalesceMs", DispatchScheduler.DEFAULT_COALESCE_MILLIS) : DispatchScheduler.DEFAULT_COALESCE_MILLIS);
+                session.getTagManager().setVerboseLoggingEnabled(true);
+                session.load(containerIds(args.get(0), options != null ? options.optLong("refreshIntervalMs", 0) : 0));
+                JSONArray valueKeys = options != null ? options.optJSONArray("valueKeys") : null;
+                if (valueKeys != null) {
+                    List<String> keys = new ArrayList<String>(valueKeys.length());
+                    for (int i = 0; i < valueKeys.length(); i++) {
+                        keys.add(valueKeys.getString(i));
+                    }
+                    for (ContainerLoader container : session.getContainers()) {
+                        container.getValues().addKeys(keys);
+                    }
+                }
 
-                    callback.success("trackPage - url = " + args.getString(0));
+                callback.success("initGTM - id = " + args.get(0) + "; interval = " + args.getInt(1) + " seconds");
+            }
+        });
 
-                    dataLayer.push("event", null);
-                    dataLayer.push("content-name", null);
+        register(new ActionHandler("exitGTM", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) {
+                impressions.flushAll();
+                scheduleMetricsLog(0);
+                dispatcher.stop();
+                session.close();
+                callback.success("exitGTM");
+            }
+        });
 
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
+        register(new ActionHandler("onReady", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) {
+                readyCallbacks.add(callback);
+                boolean sent = false;
+                for (ContainerLoader container : session.getContainers()) {
+                    ContainerLoader.State state = container.getState();
+                    if (state != ContainerLoader.State.IDLE && state != ContainerLoader.State.LOADING) {
+                        sendState(callback, container);
+                        sent = true;
+                    }
+                }
+                if (!sent) {
+                    PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+                    result.setKeepCallback(true);
+                    callback.sendPluginResult(result);
                 }
-            } else {
-                callback.error("trackPage failed - not initialized");
             }
-        } else if (action.equals("pushImpression")) {
-            if (initialized) {
+        });
+
+        register(new ActionHandler("dispatch", true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) {
+                session.getTagManager().dispatch();
+                callback.success("dispatch sent");
+            }
+        });
+
+        register(new ActionHandler("trackEvent", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
+                int value;
                 try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    JSONObject item = args.getJSONObject(0);
-                    String list = args.getString(1);
-                    String currencyCode = args.getString(2);
-
-                    Map<String, Object> itemMap = DataLayer.mapOf(
-                            "name", item.getString("name"),
-                            "id", item.getString("id"),
-                            "price", item.getString("price"),
-                            "list", list);
-
-                    dataLayer.pushEvent("productImpression", DataLayer.mapOf(
-                            "ecommerce", DataLayer.mapOf(
-                                    "currencyCode", currencyCode,
-                                    "impressions", DataLayer.listOf(itemMap)),
-                            "content-name", item.get("name")
-                    ));
-
-                    callback.success("pushImpression: " + dataLayer.toString());
-                    dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
+                    value = args.getInt(3);
+                } catch (Exception e) {
+                    value = 0;
                 }
-            } else {
-                callback.error("pushImpression failed - not initialized");
+                dataLayer.push(DataLayer.mapOf("event", "interaction", "target", args.getString(0), "action", args.getString(1), "target-properties", args.getString(2), "value", value));
+                callback.success("trackEvent - category = " + args.getString(0) + "; action = " + args.getString(1) + "; label = " + args.getString(2) + "; value = " + value);
             }
-        } else if (action.equals("pushProductClick")) {
-            if (initialized) {
-                try {
-                    JSONObject product = args.getJSONObject(0);
-                    Map<String, Object> itemMap = getProductMap(product);
-                    String list = args.getString(1);
+        });
 
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
+        register(new ActionHandler("pushEvent", true, true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
+                dataLayer.push(DataLayerConverter.toMap(args.getJSONObject(0)));
+                pushSuccess(callback, name, dataLayer, startNanos);
+            }
+        });
 
-                    int value;
-                    try {
-                        value = (int) Float.parseFloat(product.getString("price"));
-                    } catch (Exception e) {
-                        value = 0;
-                    }
+        register(new ActionHandler("trackPage", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
+                dataLayer.pushEvent("content-view", DataLayer.mapOf("content-name", args.get(0)));
+                dispatcher.requestDispatch();
 
-                    dataLayer.pushEvent("productClick", DataLayer.mapOf(
-                            "value", value,
-                            "ecommerce", DataLayer.mapOf(
-                                    "click", DataLayer.mapOf(
-                                            "actionField", DataLayer.mapOf(
-                                                    "list", list),
-                                            "products", DataLayer.listOf(
-                                                    itemMap)))));
-                    callback.success("pushProductClick = " + product);
-                    dataLayer.push("value", null);
-                    dataLayer.push("ecommerce", null);
-                    return true;
+                callback.success("trackPage - url = " + args.getString(0));
 
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
-                }
-            } else {
-                callback.error("pushProductClick failed - not initialized");
+                dataLayer.push("event", null);
+                dataLayer.push("content-name", null);
             }
-        } else if (action.equals("pushDetailView")) {
-            if (initialized) {
-                try {
-                    JSONObject product = args.getJSONObject(0);
-                    Map<String, Object> itemMap = getProductMap(product);
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    dataLayer.pushEvent("detailView",
-                            DataLayer.mapOf(
-                                    "ecommerce", DataLayer.mapOf(
-                                            "detail", DataLayer.mapOf(
-                                                    "products", DataLayer.listOf(itemMap))),
-                                    "content-name", product.get("name")));
-
-                    callback.success("pushDetailView = " + product);
-                    dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
+        });
+
+        register(new ActionHandler("pushImpression", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
+                Product product = Product.fromJson(args.getJSONObject(0));
+                String list = args.getString(1);
+                String currencyCode = args.getString(2);
+
+                Map<String, Object> itemMap = product.toImpressionMap(list);
+
+                if (impressions.isEnabled()) {
+                    // Buffered per container, since the flush runs outside this action's routing.
+                    impressions.add(routedContainerId, list, currencyCode, product.id, itemMap, product.name);
+                    pushSuccess(callback, name, dataLayer, startNanos);
+                    return;
                 }
-            } else {
-                callback.error("pushDetailView failed - not initialized");
+
+                dataLayer.pushEvent("productImpression", DataLayer.mapOf(
+                        "ecommerce", DataLayer.mapOf(
+                                "currencyCode", currencyCode,
+                                "impressions", DataLayer.listOf(itemMap)),
+                        "content-name", product.name
+                ));
+
+                pushSuccess(callback, name, dataLayer, startNanos);
+                dataLayer.push("ecommerce", null);
             }
-        } else if (action.equals("pushAddToCart")) {
-            if (initialized) {
-                try {
-                    JSONObject product = args.getJSONObject(0);
-                    Map<String, Object> itemMap = getProductMap(product);
+        });
 
-                    String currencyCode = args.getString(1);
-                    int value;
-                    try {
-                        value = (int) Float.parseFloat(product.getString("price"));
-                    } catch (Exception e) {
-                        value = 0;
-                    }
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    dataLayer.pushEvent("addToCart",
-                            DataLayer.mapOf(
-                                    "ecommerce", DataLayer.mapOf(
-                                            "currencyCode", currencyCode,
-                                            "add", DataLayer.mapOf(
-                                                    "products", DataLayer.listOf(itemMap))),
-                                    "value", value));
-                    callback.success("pushAddToCart = " + args.getString(0) + " currencyCode = " + currencyCode);
-                    dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
-                }
-            } else {
-                callback.error("pushAddToCart failed - not initialized");
+        register(new ActionHandler("pushProductClick", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                JSONObject item = args.getJSONObject(0);
+                Product product = Product.fromJson(item);
+                Map<String, Object> itemMap = product.toMap();
+                String list = args.getString(1);
+
+                DataLayerClient dataLayer = session.getDataLayer();
+
+                dataLayer.pushEvent("productClick", DataLayer.mapOf(
+                        "value", product.value(),
+                        "ecommerce", DataLayer.mapOf(
+                                "click", DataLayer.mapOf(
+                                        "actionField", DataLayer.mapOf(
+                                                "list", list),
+                                        "products", DataLayer.listOf(
+                                                itemMap)))));
+                callback.success("pushProductClick = " + item);
+                dataLayer.push("value", null);
+                dataLayer.push("ecommerce", null);
             }
-        } else if (action.equals("pushRemoveFromCart")) {
-            if (initialized) {
-                try {
-                    JSONObject product = args.getJSONObject(0);
-                    Map<String, Object> itemMap = getProductMap(product);
+        });
 
-                    int value;
-                    try {
-                        value = (int) Float.parseFloat(product.getString("price"));
-                    } catch (Exception e) {
-                        value = 0;
-                    }
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    dataLayer.pushEvent("removeFromCart",
-                            DataLayer.mapOf(
-                                    "ecommerce", DataLayer.mapOf(
-                                            "remove", DataLayer.mapOf(
-                                                    "products", DataLayer.listOf(itemMap))),
-                                    "value", value));
-                    callback.success("pushRemoveCart = " + args.getString(0));
-                    dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
-                }
-            } else {
-                callback.error("pushRemoveFromCart failed - not initialized");
+        register(new ActionHandler("pushDetailView", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                JSONObject item = args.getJSONObject(0);
+                Product product = Product.fromJson(item);
+                Map<String, Object> itemMap = product.toMap();
+                DataLayerClient dataLayer = session.getDataLayer();
+                dataLayer.pushEvent("detailView",
+                        DataLayer.mapOf(
+                                "ecommerce", DataLayer.mapOf(
+                                        "detail", DataLayer.mapOf(
+                                                "products", DataLayer.listOf(itemMap))),
+                                "content-name", product.name));
+
+                callback.success("pushDetailView = " + item);
+                dataLayer.push("ecommerce", null);
             }
-        } else if (action.equals("pushCheckout")) {
-            if (initialized) {
-                try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
+        });
 
-                    int stepNo = args.getInt(0);
-                    JSONArray productsJSONArray = args.getJSONArray(1);
-                    String option = args.getString(2);
-                    String screenName = args.getString(3);
+        register(new ActionHandler("pushAddToCart", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                Product product = Product.fromJson(args.getJSONObject(0));
+                Map<String, Object> itemMap = product.toMap();
 
-                    ArrayList items = new ArrayList<Map<String, Object>>();
+                String currencyCode = args.getString(1);
+                DataLayerClient dataLayer = session.getDataLayer();
+                dataLayer.pushEvent("addToCart",
+                        DataLayer.mapOf(
+                                "ecommerce", DataLayer.mapOf(
+                                        "currencyCode", currencyCode,
+                                        "add", DataLayer.mapOf(
+                                                "products", DataLayer.listOf(itemMap))),
+                                "value", product.value()));
+                callback.success("pushAddToCart = " + args.getString(0) + " currencyCode = " + currencyCode);
+                dataLayer.push("ecommerce", null);
+            }
+        });
 
-                    for (int i = 0; i < productsJSONArray.length(); i++) {
-                        JSONObject item = productsJSONArray.getJSONObject(i);
+        register(new ActionHandler("pushRemoveFromCart", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                Product product = Product.fromJson(args.getJSONObject(0));
+                Map<String, Object> itemMap = product.toMap();
 
-                        Map<String, Object> itemMap = getProductMap(item);
-                        items.add(itemMap);
-                    }
+                DataLayerClient dataLayer = session.getDataLayer();
+                dataLayer.pushEvent("removeFromCart",
+                        DataLayer.mapOf(
+                                "ecommerce", DataLayer.mapOf(
+                                        "remove", DataLayer.mapOf(
+                                                "products", DataLayer.listOf(itemMap))),
+                                "value", product.value()));
+                callback.success("pushRemoveCart = " + args.getString(0));
+                dataLayer.push("ecommerce", null);
+            }
+        });
+
+        register(new ActionHandler("pushCheckout", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
 
-                    List<Object> products = DataLayer.listOf(items.toArray(new Object[items.size()]));
+                int stepNo = args.getInt(0);
+                JSONArray cart = args.getJSONArray(1);
+                String option = args.getString(2);
+                String screenName = args.getString(3);
 
-                    Map<String, Object> actionField;
+                // Checked up front so a bad item fails the call before any chunk is pushed.
+                // Only the first chunk carries the step and option, so a split cart counts once
+                // in the checkout funnel.
+                Product.validate(cart);
+                int total = cart.length();
+                int chunkSize = chunkSize(total);
+                for (int from = 0; from == 0 || from < total; from += chunkSize) {
+                    List<Object> products = DataLayerConverter.productList(cart, from, Math.min(total, from + chunkSize));
 
-                    if (option.isEmpty()) {
-                        actionField = DataLayer.mapOf("step", stepNo);
+                    Map<String, Object> checkout;
+
+                    if (from > 0) {
+                        checkout = DataLayer.mapOf("products", products);
+                    } else if (option.isEmpty()) {
+                        checkout = DataLayer.mapOf("actionField", DataLayer.mapOf("step", stepNo), "products", products);
                     } else {
-                        actionField = DataLayer.mapOf("step", stepNo, "option", option);
+                        checkout = DataLayer.mapOf("actionField", DataLayer.mapOf("step", stepNo, "option", option), "products", products);
                     }
 
                     dataLayer.pushEvent("checkout",
                             DataLayer.mapOf("content-name", screenName,
-                                    "ecommerce", DataLayer.mapOf(
-                                            "checkout", DataLayer.mapOf(
-                                                    "actionField", actionField,
-                                                    "products", products))));
-                    callback.success("pushCheckout: " + dataLayer.toString());
+                                    "ecommerce", DataLayer.mapOf("checkout", checkout)));
                     dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
                 }
-            } else {
-                callback.error("dispatch failed - not initialized");
+                dispatcher.dispatchNow();
+                pushSuccess(callback, name, dataLayer, startNanos);
             }
-        } else if (action.equals("pushTransaction")) {
-            if (initialized) {
-                try {
-                    DataLayer dataLayer = TagManager.getInstance(this.cordova.getActivity().getApplicationContext()).getDataLayer();
-                    JSONObject transaction = args.getJSONObject(0);
-                    JSONArray transactionItems = args.getJSONArray(1);
-                    ArrayList items = new ArrayList<Map<String, Object>>();
-
-                    for (int i = 0; i < transactionItems.length(); i++) {
-                        JSONObject item = transactionItems.getJSONObject(i);
-
-                        Map<String, Object> itemMap = getProductMap(item);
-                        items.add(itemMap);
-                    }
+        });
 
-                    List<Object> products = DataLayer.listOf(items.toArray(new Object[items.size()]));
+        register(new ActionHandler("pushTransaction", true, true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                DataLayerClient dataLayer = session.getDataLayer();
+                Transaction transaction = Transaction.fromJson(args.getJSONObject(0));
+                JSONArray items = args.getJSONArray(1);
+                String contentName = "Payment Response";
 
-                    String contentName = "Payment Response";
+                // Large orders go out as several events sharing the transaction id; only
+                // the first carries the totals. Every item is checked first so a bad one
+                // fails the call before anything is recorded.
+                Product.validate(items);
+                int total = items.length();
+                int chunkSize = chunkSize(total);
+                for (int from = 0; from == 0 || from < total; from += chunkSize) {
+                    List<Object> products = DataLayerConverter.productList(items, from, Math.min(total, from + chunkSize));
 
                     dataLayer.pushEvent("orderPlaced",
                             DataLayer.mapOf("content-name", contentName,
                                     "ecommerce", DataLayer.mapOf("purchase", DataLayer.mapOf(
-                                            "actionField", DataLayer.mapOf(
-                                                    "id", transaction.getString("transactionId"),
-                                                    "affiliation", transaction.getString("transactionAffiliation"),
-                                                    "revenue", transaction.getString("transactionTotal"),
-                                                    "tax", transaction.getString("transactionTax"),
-                                                    "shipping", transaction.getString("transactionShipping")),
+                                            "actionField", from == 0 ? transaction.toActionField() : transaction.toFollowUpActionField(),
                                             "products", products
                                     ))));
-
-                    callback.success("pushTransaction: " + dataLayer.toString());
                     dataLayer.push("ecommerce", null);
-                    return true;
-                } catch (final Exception e) {
-                    callback.error(e.getMessage());
                 }
-            } else {
-                callback.error("pushTransaction failed - not initialized");
+                dispatcher.dispatchNow();
+
+                pushSuccess(callback, name, dataLayer, startNanos);
+            }
+        });
+
+        register(new ActionHandler("getDataLayerSnapshot", true) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) {
+                callback.success(session.getDataLayer().toString());
+            }
+        });
+
+        register(new ActionHandler("getValue", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                String key = args.getString(0);
+                String type = args.optString(1, "string");
+                ContainerValueCache.Value value = readyValues(args.optString(2, null)).get(key);
+                if (value == null) {
+                    callback.error(name + " failed - not initialized");
+                    return;
+                }
+                JSONObject result = new JSONObject();
+                result.put(key, value.as(type));
+                callback.success(result);
+            }
+        });
+
+        register(new ActionHandler("getValues", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                JSONArray keys = args.getJSONArray(0);
+                String type = args.optString(1, "string");
+                List<String> wanted = new ArrayList<String>(keys.length());
+                for (int i = 0; i < keys.length(); i++) {
+                    wanted.add(keys.getString(i));
+                }
+                // One map published for a single container version, so every value matches.
+                Map<String, ContainerValueCache.Value> values = readyValues(args.optString(2, null)).getAll(wanted);
+                if (values == null) {
+                    callback.error(name + " failed - not initialized");
+                    return;
+                }
+                JSONObject result = new JSONObject();
+                for (String key : wanted) {
+                    result.put(key, values.get(key).as(type));
+                }
+                callback.success(result);
+            }
+        });
+
+        register(new ActionHandler("getMetrics", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                callback.success(metricsSnapshot());
+            }
+        });
+
+        register(new ActionHandler("pushBatch", false) {
+            @Override
+            void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException {
+                JSONArray operations = args.getJSONArray(0);
+                int size = operations.length();
+                if (buffer.getPolicy() == EventRingBuffer.OverflowPolicy.REJECT && !buffer.hasRoomFor(size)) {
+                    callback.error(BUFFER_FULL_ERROR);
+                    return;
+                }
+                PendingBatch batch = new PendingBatch(callback, size);
+                for (int i = 0; i < size; i++) {
+                    JSONObject operation = operations.getJSONObject(i);
+                    JSONArray methodArgs = operation.optJSONArray("args");
+                    buffer.offer(operation.getString("method"), methodArgs != null ? methodArgs : new JSONArray(),
+                            operation.optString("containerId", null), batch, i);
+                }
+                scheduleDrain();
+            }
+        });
+    }
+
+    /**
+     * Pushes impressions collected by the aggregator as one productImpression
+     * event, routed to the container they were meant for.
+     */
+    private void pushImpressions(String containerId, String currencyCode, List<Object> items, Object contentName) {
+        synchronized (pushLock) {
+            DataLayerClient dataLayer = session.getDataLayer();
+            if (containerId != null) {
+                dataLayer.push(CONTAINER_ID_KEY, containerId);
+            }
+            try {
+                dataLayer.pushEvent("productImpression", DataLayer.mapOf(
+                        "ecommerce", DataLayer.mapOf(
+                                "currencyCode", currencyCode,
+                                "impressions", items),
+                        "content-name", contentName
+                ));
+                dataLayer.push("ecommerce", null);
+            } finally {
+                if (containerId != null) {
+                    dataLayer.push(CONTAINER_ID_KEY, null);
+                }
             }
         }
+    }
 
-        return false;
+    /**
+     * @return the value cache of the given container, or of the primary one if
+     *         the id is null or empty; its values are null until the container is ready
+     */
+    private ContainerValueCache readyValues(String containerId) {
+        ContainerLoader container = session.getContainer(containerId == null || containerId.isEmpty() ? null : containerId);
+        return container != null ? container.getValues() : new ContainerValueCache();
     }
 
-    private Map<String, Object> getProductMap(JSONObject item) throws JSONException {
-        return DataLayer.mapOf(
-                "name", item.getString("name"),
-                "id", item.getString("id"),
-                "price", item.getString("price"),
-                "quantity", item.has("quantity") ? item.getString("quantity") : "1");
+    /**
+     * Reads the container argument of initGTM: a container id, or an array of
+     * ids or of { id, refreshIntervalMs } objects. The first one is the primary.
+     */
+    private static Map<String, Long> containerIds(Object value, long defaultRefreshMillis) throws JSONException {
+        Map<String, Long> containers = new LinkedHashMap<String, Long>();
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                Object item = array.get(i);
+                if (item instanceof JSONObject) {
+                    JSONObject container = (JSONObject) item;
+                    containers.put(container.getString("id"), container.optLong("refreshIntervalMs", defaultRefreshMillis));
+                } else {
+                    containers.put(item.toString(), defaultRefreshMillis);
+                }
+            }
+        } else {
+            containers.put(value.toString(), defaultRefreshMillis);
+        }
+        if (containers.isEmpty()) {
+            throw new JSONException("No container id");
+        }
+        return containers;
     }
 
-    private Map<String, Object> objectMap(JSONObject o) throws JSONException {
-        if (o.length() == 0) {
-            return Collections.emptyMap();
+    /**
+     * Number of products per event for a cart of the given size, so only one
+     * chunk of products is converted and held at a time.
+     */
+    private int chunkSize(int total) {
+        int max = maxProductsPerEvent;
+        return max > 0 ? max : Math.max(total, 1);
+    }
+
+    /**
+     * Reports a completed push. In lean mode only the action name, a sequence
+     * number and the push latency are returned; otherwise the whole DataLayer is
+     * serialized, which gets slower as the DataLayer grows.
+     */
+    private void pushSuccess(CallbackContext callback, String action, DataLayerClient dataLayer, long startNanos) throws JSONException {
+        if (leanResponses) {
+            JSONObject result = new JSONObject();
+            result.put("action", action);
+            result.put("sequence", sequence.incrementAndGet());
+            result.put("latencyMs", (System.nanoTime() - startNanos) / 1e6);
+            callback.success(result);
+        } else {
+            callback.success(action + ": " + dataLayer.toString());
+        }
+    }
+
+    /**
+     * Collects the result of a single operation of a pushBatch call instead of
+     * sending it across the bridge, so the whole batch can be answered at once.
+     */
+    private static class BatchCallbackContext extends CallbackContext {
+        private PluginResult result;
+
+        BatchCallbackContext() {
+            super("pushBatch", null);
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (result == null) {
+                result = pluginResult;
+            }
+        }
+
+        JSONObject toResult(String method) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("method", method);
+            json.put("success", result.getStatus() == PluginResult.Status.OK.ordinal());
+            json.put("message", decodeMessage(result));
+            return json;
         }
-        Map<String, Object> map = new HashMap<String, Object>(o.length());
-        Iterator it = o.keys();
-        String key;
-        Object value;
-        while (it.hasNext()) {
-            key = (String) it.next();
-            value = o.has(key) ? o.get(key) : null;
-            map.put(key, value);
+
+        private static Object decodeMessage(PluginResult pluginResult) {
+            if (pluginResult.getMessageType() == PluginResult.MESSAGE_TYPE_STRING) {
+                return pluginResult.getStrMessage();
+            }
+            try {
+                return new JSONTokener(pluginResult.getMessage()).nextValue();
+            } catch (JSONException e) {
+                return pluginResult.getMessage();
+            }
         }
-        return map;
     }
 
-    private static class ContainerLoadedCallback implements ContainerHolder.ContainerAvailableListener {
-        static void registerCallbacksForContainer(Container container) {
+    /**
+     * Receives the results of replayed journal records, whose original callers
+     * were already answered when the records were journaled.
+     */
+    private static class JournalCallbackContext extends CallbackContext {
+
+        JournalCallbackContext() {
+            super(JOURNAL_FILE_NAME, null);
         }
 
         @Override
-        public void onContainerAvailable(ContainerHolder containerHolder, String containerVersion) {
-            // We load each container when it becomes available.
-            Container container = containerHolder.getContainer();
-            registerCallbacksForContainer(container);
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getStatus() != PluginResult.Status.OK.ordinal()) {
+                Log.w(TAG, "Replayed event failed: " + pluginResult.getMessage());
+            }
         }
     }
 
-    private static class ContainerHolderSingleton {
-        private static ContainerHolder containerHolder;
+    /**
+     * Notified after every action has run, successfully or not.
+     */
+    interface ActionListener {
+        void onActionCompleted(String action, Outcome outcome, long elapsedNanos);
+    }
+
+    enum Outcome {
+        SUCCEEDED,
+        FAILED,
+        /** Rejected because the container was not ready. */
+        NOT_INITIALIZED,
+        /** Stored in the journal to be replayed once the container is ready. */
+        JOURNALED,
+        /** Discarded by the overflow policy of the event buffer. */
+        DROPPED,
+        /** Discarded by the sampling or rate limit of its event name. */
+        THROTTLED
+    }
+
+    /**
+     * A single plugin action. The dispatcher takes care of initialization
+     * gating, error reporting and timing; handlers only do the work.
+     */
+    private abstract static class ActionHandler {
+        final String name;
+        final boolean requiresInitialization;
+        // Whether the action may be journaled and replayed once the container is ready.
+        final boolean deferrable;
+        // Whether the action is subject to the per event name limits.
+        final boolean throttled;
 
-        /**
-         * Utility class; don't instantiate.
-         */
-        private ContainerHolderSingleton() {
+        ActionHandler(String name, boolean requiresInitialization) {
+            this(name, requiresInitialization, false);
         }
 
-        static ContainerHolder getContainerHolder() {
-            return containerHolder;
+        ActionHandler(String name, boolean requiresInitialization, boolean deferrable) {
+            this(name, requiresInitialization, deferrable, false);
         }
 
-        static void setContainerHolder(ContainerHolder c) {
-            containerHolder = c;
+        ActionHandler(String name, boolean requiresInitialization, boolean deferrable, boolean throttled) {
+            this.name = name;
+            this.requiresInitialization = requiresInitialization;
+            this.deferrable = deferrable;
+            this.throttled = throttled;
         }
+
+        abstract void execute(JSONArray args, CallbackContext callback, long startNanos) throws JSONException;
     }
 }
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.tagmanager.Container;
+import com.google.android.gms.tagmanager.ContainerHolder;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a container and tracks its readiness. The container is usable as soon
+ * as the saved or default binary container is available; a later network
+ * refresh only moves it from DEFAULT to FRESH. Each loader has its own lock
+ * and refresh schedule, so several containers load side by side.
+ */
+class ContainerLoader {
+
+    enum State {
+        /** Nothing loaded or requested. */
+        IDLE,
+        /** Load requested, no container available yet. */
+        LOADING,
+        /** The saved or default binary container is usable. */
+        DEFAULT,
+        /** A container refreshed from the network is in use. */
+        FRESH,
+        /** Loading failed and no container is available. */
+        FAILED
+    }
+
+    interface Listener {
+        void onStateChanged(ContainerLoader loader, State state);
+    }
+
+    private static final long TIMEOUT_FOR_CONTAINER_OPEN_MILLISECONDS = 2000;
+    private static final String TAG = "CDVTagManager";
+
+    private final TagManagerClient tagManager;
+    private final int defaultContainerResourceId;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+    private final ContainerValueCache values = new ContainerValueCache();
+
+    private volatile State state = State.IDLE;
+    private volatile long loadStartNanos;
+    private volatile long loadNanos = -1;
+    private String containerId;
+    private ContainerHolder containerHolder;
+    private ScheduledFuture<?> refreshTask;
+    // Bumped on every load and release so callbacks of a superseded load are ignored.
+    private int generation;
+
+    ContainerLoader(TagManagerClient tagManager, int defaultContainerResourceId, Listener listener,
+                    ScheduledExecutorService scheduler) {
+        this.tagManager = tagManager;
+        this.defaultContainerResourceId = defaultContainerResourceId;
+        this.listener = listener;
+        this.scheduler = scheduler;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    boolean isReady() {
+        State current = state;
+        return current == State.DEFAULT || current == State.FRESH;
+    }
+
+    /**
+     * @return how long the container took to become usable, or -1 if it has not yet
+     */
+    long getLoadMillis() {
+        long nanos = loadNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    ContainerValueCache getValues() {
+        return values;
+    }
+
+    synchronized String getContainerId() {
+        return containerId;
+    }
+
+    synchronized Container getContainer() {
+        return containerHolder != null ? containerHolder.getContainer() : null;
+    }
+
+    /**
+     * Starts loading the given container without blocking. Loading the
+     * container that is already loading or loaded is a no-op.
+     */
+    void load(String id) {
+        final int loadGeneration;
+        synchronized (this) {
+            if (id.equals(containerId) && state != State.IDLE && state != State.FAILED) {
+                return;
+            }
+            releaseHolder();
+            containerId = id;
+            loadGeneration = ++generation;
+            loadStartNanos = System.nanoTime();
+            loadNanos = -1;
+        }
+        setState(State.LOADING, loadGeneration);
+        PendingResult<ContainerHolder> pending = tagManager.loadContainerPreferNonDefault(id, defaultContainerResourceId);
+        pending.setResultCallback(new ResultCallback<ContainerHolder>() {
+            @Override
+            public void onResult(@NonNull ContainerHolder holder) {
+                onContainerHolder(holder, loadGeneration);
+            }
+        }, TIMEOUT_FOR_CONTAINER_OPEN_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Asks for a network refresh of the container at the given interval, on top
+     * of the refreshes TagManager schedules itself.
+     *
+     * @param intervalMillis refresh interval; 0 or less cancels the schedule
+     */
+    synchronized void setRefreshInterval(long intervalMillis) {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+        if (intervalMillis > 0) {
+            refreshTask = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void refresh() {
+        if (containerHolder != null) {
+            containerHolder.refresh();
+        }
+    }
+
+    /**
+     * Releases the loaded container and returns to IDLE.
+     */
+    void release() {
+        int releaseGeneration;
+        synchronized (this) {
+            setRefreshInterval(0);
+            releaseHolder();
+            values.clear();
+            containerId = null;
+            releaseGeneration = ++generation;
+            loadNanos = -1;
+        }
+        setState(State.IDLE, releaseGeneration);
+    }
+
+    private void onContainerHolder(ContainerHolder holder, int loadGeneration) {
+        Container container = holder.getContainer();
+        State loaded;
+        synchronized (this) {
+            if (loadGeneration != generation) {
+                holder.release();
+                return;
+            }
+            containerHolder = holder;
+            if (container == null) {
+                loaded = State.FAILED;
+            } else {
+                // A timed out or failed refresh still leaves the default container usable.
+                if (!holder.getStatus().isSuccess()) {
+                    Log.w(TAG, "Using default container " + containerId + ": " + holder.getStatus());
+                }
+                loaded = container.isDefault() ? State.DEFAULT : State.FRESH;
+                values.reload(container);
+                loadNanos = System.nanoTime() - loadStartNanos;
+                holder.setContainerAvailableListener(new ContainerLoadedCallback(loadGeneration));
+            }
+        }
+        if (loaded == State.FAILED) {
+            Log.e(TAG, "Failure loading container");
+        }
+        setState(loaded, loadGeneration);
+    }
+
+    private void setState(State newState, int stateGeneration) {
+        synchronized (this) {
+            if (stateGeneration != generation || state == newState) {
+                return;
+            }
+            state = newState;
+        }
+        listener.onStateChanged(this, newState);
+    }
+
+    private void releaseHolder() {
+        if (containerHolder != null) {
+            containerHolder.release();
+            containerHolder = null;
+        }
+    }
+
+    private class ContainerLoadedCallback implements ContainerHolder.ContainerAvailableListener {
+        private final int loadGeneration;
+
+        ContainerLoadedCallback(int loadGeneration) {
+            this.loadGeneration = loadGeneration;
+        }
+
+        @Override
+        public void onContainerAvailable(ContainerHolder containerHolder, String containerVersion) {
+            Log.i(TAG, "Container version " + containerVersion + " available");
+            synchronized (ContainerLoader.this) {
+                if (loadGeneration != generation) {
+                    return;
+                }
+                values.reload(containerHolder.getContainer());
+                state = State.FRESH;
+            }
+            // Notified even when already FRESH, so settings read from the container follow each version.
+            listener.onStateChanged(ContainerLoader.this, State.FRESH);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import com.google.android.gms.tagmanager.Container;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Values read from a container, for remote-config style lookups. The values
+ * of every known key are read when a container version loads and published
+ * as one immutable map, so readers never see a mix of two versions and reads
+ * do not touch the container. A key read for the first time is looked up once
+ * and then kept for later versions too.
+ */
+class ContainerValueCache {
+
+    static final class Value {
+        final String string;
+        final boolean bool;
+        final long number;
+        final double decimal;
+
+        Value(Container container, String key) {
+            this.string = container.getString(key);
+            this.bool = container.getBoolean(key);
+            this.number = container.getLong(key);
+            this.decimal = container.getDouble(key);
+        }
+
+        /**
+         * @param type one of "string", "boolean", "long" or "double"
+         */
+        Object as(String type) {
+            if ("boolean".equals(type)) {
+                return bool;
+            }
+            if ("long".equals(type)) {
+                return number;
+            }
+            if ("double".equals(type)) {
+                return decimal;
+            }
+            return string;
+        }
+    }
+
+    // Guarded by this.
+    private final Set<String> keys = new LinkedHashSet<String>();
+    private Container container;
+
+    private volatile Map<String, Value> values = Collections.emptyMap();
+
+    /**
+     * Reads every known key from a newly loaded container version and swaps
+     * the whole set in at once.
+     */
+    synchronized void reload(Container loaded) {
+        container = loaded;
+        Map<String, Value> snapshot = new HashMap<String, Value>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            snapshot.put(key, new Value(loaded, key));
+        }
+        values = Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Adds keys to read on every load, reading them now if a container is loaded.
+     */
+    synchronized void addKeys(Collection<String> newKeys) {
+        keys.addAll(newKeys);
+        if (container != null) {
+            reload(container);
+        }
+    }
+
+    synchronized void clear() {
+        container = null;
+        values = Collections.emptyMap();
+    }
+
+    /**
+     * @return the value, or null if no container is loaded
+     */
+    Value get(String key) {
+        Value value = values.get(key);
+        return value != null ? value : load(key);
+    }
+
+    /**
+     * Reads several keys from the same container version. Keys not read yet are
+     * loaded together with the version the other values came from.
+     *
+     * @return the values by key, or null if no container is loaded
+     */
+    Map<String, Value> getAll(Collection<String> wanted) {
+        Map<String, Value> current = values;
+        return current.keySet().containsAll(wanted) ? current : loadAll(wanted);
+    }
+
+    private synchronized Map<String, Value> loadAll(Collection<String> wanted) {
+        if (container == null) {
+            return null;
+        }
+        Map<String, Value> snapshot = new HashMap<String, Value>(values);
+        for (String key : wanted) {
+            if (!snapshot.containsKey(key)) {
+                keys.add(key);
+                snapshot.put(key, new Value(container, key));
+            }
+        }
+        values = Collections.unmodifiableMap(snapshot);
+        return values;
+    }
+
+    private synchronized Value load(String key) {
+        Value value = values.get(key);
+        if (value != null || container == null) {
+            return value;
+        }
+        keys.add(key);
+        value = new Value(container, key);
+        Map<String, Value> snapshot = new HashMap<String, Value>(values);
+        snapshot.put(key, value);
+        values = Collections.unmodifiableMap(snapshot);
+        return value;
+    }
+}
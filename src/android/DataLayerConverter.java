@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts bridge arguments into the plain maps and lists the DataLayer
+ * expects. Nested objects and arrays are converted recursively in a single
+ * pass, with collections sized up front.
+ */
+final class DataLayerConverter {
+
+    /**
+     * Utility class; don't instantiate.
+     */
+    private DataLayerConverter() {
+    }
+
+    static Map<String, Object> toMap(JSONObject o) {
+        int size = o.length();
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> map = new HashMap<String, Object>(capacityFor(size));
+        Iterator<String> keys = o.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, toValue(o.opt(key)));
+        }
+        return map;
+    }
+
+    static List<Object> toList(JSONArray a) {
+        int size = a.length();
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(toValue(a.opt(i)));
+        }
+        return list;
+    }
+
+    static Object toValue(Object value) {
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            return toList((JSONArray) value);
+        }
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes and converts the products in [from, to), so a large cart can be
+     * encoded one chunk at a time.
+     */
+    static List<Object> productList(JSONArray items, int from, int to) throws JSONException {
+        List<Object> products = new ArrayList<Object>(to - from);
+        for (int i = from; i < to; i++) {
+            products.add(Product.fromJson(items.getJSONObject(i)).toMap());
+        }
+        return products;
+    }
+
+    // Smallest HashMap capacity that holds size entries without rehashing.
+    private static int capacityFor(int size) {
+        return size * 4 / 3 + 1;
+    }
+}
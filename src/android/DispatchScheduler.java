@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when queued hits are sent with TagManager.dispatch(). Hits are sent
+ * on the configured period, requests within the coalescing window share one
+ * dispatch, and urgent requests go out right away. Without connectivity, or
+ * in battery saver for non-urgent requests, dispatch backs off exponentially.
+ */
+class DispatchScheduler {
+
+    static final long DEFAULT_COALESCE_MILLIS = 5000;
+    private static final long MIN_BACKOFF_MILLIS = 30 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 15 * 60 * 1000;
+
+    private final Context context;
+    private final TagManagerClient tagManager;
+    private final ScheduledExecutorService scheduler;
+
+    private long coalesceMillis = DEFAULT_COALESCE_MILLIS;
+    private long backoffMillis;
+    private ScheduledFuture<?> periodicTask;
+    private ScheduledFuture<?> pendingTask;
+    private long pendingAtMillis;
+    private boolean pendingUrgent;
+
+    DispatchScheduler(Context context, TagManagerClient tagManager, ScheduledExecutorService scheduler) {
+        this.context = context;
+        this.tagManager = tagManager;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param periodSeconds interval between periodic dispatches; 0 or less disables them
+     * @param coalesceMillis window within which dispatch requests are merged
+     */
+    synchronized void start(int periodSeconds, long coalesceMillis) {
+        stop();
+        this.coalesceMillis = Math.max(0, coalesceMillis);
+        if (periodSeconds > 0) {
+            periodicTask = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(false);
+                }
+            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        if (periodicTask != null) {
+            periodicTask.cancel(false);
+            periodicTask = null;
+        }
+        cancelPending();
+        backoffMillis = 0;
+    }
+
+    /**
+     * Dispatches within the coalescing window, sharing one dispatch with any
+     * other request made meanwhile.
+     */
+    synchronized void requestDispatch() {
+        schedule(coalesceMillis, false);
+    }
+
+    /**
+     * Dispatches as soon as possible, e.g. after a transaction or on pause.
+     */
+    synchronized void dispatchNow() {
+        schedule(0, true);
+    }
+
+    /**
+     * @return false if an earlier dispatch was already pending and is reused
+     */
+    private boolean schedule(long delayMillis, boolean urgent) {
+        long atMillis = System.currentTimeMillis() + delayMillis;
+        if (pendingTask != null) {
+            if (pendingAtMillis <= atMillis) {
+                pendingUrgent |= urgent;
+                return false;
+            }
+            urgent |= pendingUrgent;
+            pendingTask.cancel(false);
+        }
+        pendingAtMillis = atMillis;
+        pendingUrgent = urgent;
+        pendingTask = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                boolean taskUrgent;
+                synchronized (DispatchScheduler.this) {
+                    taskUrgent = pendingUrgent;
+                    pendingTask = null;
+                    pendingUrgent = false;
+                }
+                dispatch(taskUrgent);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void dispatch(boolean urgent) {
+        if (!isConnected() || (!urgent && isPowerSaveMode())) {
+            synchronized (this) {
+                // Only grow the backoff when a retry is actually scheduled, not on every
+                // periodic tick that finds one already pending.
+                long next = backoffMillis == 0 ? MIN_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                if (schedule(next, urgent)) {
+                    backoffMillis = next;
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            backoffMillis = 0;
+        }
+        tagManager.dispatch();
+    }
+
+    private void cancelPending() {
+        if (pendingTask != null) {
+            pendingTask.cancel(false);
+            pendingTask = null;
+        }
+        pendingUrgent = false;
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = connectivity.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null ? connectivity.getNetworkCapabilities(network) : null;
+            return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        }
+        return isConnectedLegacy(connectivity);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isConnectedLegacy(ConnectivityManager connectivity) {
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        return network != null && network.isConnected();
+    }
+
+    private boolean isPowerSaveMode() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return power != null && power.isPowerSaveMode();
+    }
+}
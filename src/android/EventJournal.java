@@ -0,0 +1,462 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only file of actions received while their container is not ready, so
+ * they survive process death and can be replayed in order once it loads.
+ * <p>
+ * Each record is one line of JSON written with a single call and flushed, so a
+ * crash can at worst leave a torn last line, which is dropped on recovery. When
+ * the file grows past its size cap the oldest records are compacted away.
+ * <p>
+ * Records carry a sequence number and the container they are meant for, and are
+ * replayed per container. Replayed records stay in the file until the next
+ * replay pass; their sequence numbers are appended to a small marker file, so a
+ * crash during replay loses none of them and repeats at most the one that was
+ * running.
+ */
+class EventJournal {
+
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    private static final String TAG = "CDVTagManager";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File marker;
+    private final int maxBytes;
+    private FileOutputStream out;
+    private FileOutputStream markerOut;
+    private long bytes;
+    private int records;
+    private int dropped;
+    private boolean enabled;
+    private boolean recovered;
+    private long nextSeq;
+    // Records not replayed yet, by container id; null stands for the primary container.
+    private final Map<String, Integer> pending = new HashMap<String, Integer>();
+    // Containers whose records are being replayed.
+    private final Set<String> replaying = new HashSet<String>();
+    // Sequence numbers of records replayed but still in the file.
+    private final Set<Long> replayed = new HashSet<Long>();
+    // Sequence numbers returned by beginReplay, still in the file and not replayed yet.
+    private final Set<Long> inFlight = new HashSet<Long>();
+
+    /**
+     * Does no file I/O; the journal is recovered by recover(), or on first use.
+     */
+    EventJournal(File file, int maxBytes) {
+        this.file = file;
+        this.marker = new File(file.getPath() + ".replayed");
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    synchronized int size() {
+        recover();
+        return records - replayed.size();
+    }
+
+    synchronized int getDropped() {
+        recover();
+        return dropped;
+    }
+
+    /**
+     * Journals an action if it cannot run directly: either its container is not
+     * ready yet, or older records for the same container are still waiting to be
+     * replayed and running it now would reorder events. Records held for other
+     * containers do not hold it back.
+     *
+     * @param containerId the container the action is meant for, or null for the primary one
+     * @return true if the action was journaled and must not run now
+     */
+    synchronized boolean appendIfPending(String action, JSONArray args, String containerId, boolean ready) {
+        recover();
+        if (ready ? !replaying.contains(containerId) && !pending.containsKey(containerId) : !enabled) {
+            return false;
+        }
+        try {
+            JSONObject record = new JSONObject();
+            record.put("seq", nextSeq++);
+            record.put("action", action);
+            record.put("args", args);
+            if (containerId != null) {
+                record.put("containerId", containerId);
+            }
+            if (append((record.toString() + "\n").getBytes(UTF_8))) {
+                addPending(containerId, 1);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to journal " + action, e);
+            dropped++;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to journal " + action, e);
+            dropped++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the records of the given container not replayed yet, first
+     * removing every replayed record from the file. Records of other containers
+     * are left in place. Until a call returns an empty list, new actions for the
+     * container keep being journaled behind the ones being replayed.
+     *
+     * @param primary whether the container is the primary one, whose records
+     *                may also have been journaled without a container id
+     */
+    synchronized List<JSONObject> beginReplay(String containerId, boolean primary) {
+        recover();
+        List<JSONObject> all = read();
+        if (!replayed.isEmpty()) {
+            List<JSONObject> kept = new ArrayList<JSONObject>(all.size());
+            for (JSONObject record : all) {
+                if (!replayed.contains(record.optLong("seq", 0))) {
+                    kept.add(record);
+                }
+            }
+            try {
+                rewrite(kept);
+                clearMarker();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to clear replayed events", e);
+            }
+            all = kept;
+        }
+        List<JSONObject> matching = new ArrayList<JSONObject>();
+        inFlight.clear();
+        for (JSONObject record : all) {
+            if (!replayed.contains(record.optLong("seq", 0)) && matches(record, containerId, primary)) {
+                matching.add(record);
+                inFlight.add(record.optLong("seq", 0));
+            }
+        }
+        if (matching.isEmpty()) {
+            endReplay(containerId, primary);
+        } else {
+            replaying.add(containerId);
+            if (primary) {
+                replaying.add(null);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Records that a record returned by beginReplay has been replayed, so it is
+     * not replayed again after a crash.
+     */
+    synchronized void markReplayed(JSONObject record) {
+        long seq = record.optLong("seq", 0);
+        // Not in flight any more if compaction removed it from the file meanwhile;
+        // it was no longer counted as pending then, so there is nothing to mark.
+        if (!inFlight.remove(seq) || !replayed.add(seq)) {
+            return;
+        }
+        addPending(record.optString("containerId", null), -1);
+        try {
+            if (markerOut == null) {
+                markerOut = new FileOutputStream(marker, true);
+            }
+            markerOut.write((seq + "\n").getBytes(UTF_8));
+            markerOut.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record replayed event", e);
+        }
+    }
+
+    /**
+     * Stops holding back new actions for a container whose replay was cut short,
+     * e.g. because it was released; its remaining records wait for its next load.
+     */
+    synchronized void endReplay(String containerId, boolean primary) {
+        inFlight.clear();
+        replaying.remove(containerId);
+        if (primary) {
+            replaying.remove(null);
+        }
+    }
+
+    synchronized void close() {
+        closeStream();
+        closeMarker();
+    }
+
+    private static boolean matches(JSONObject record, String containerId, boolean primary) {
+        String recordContainerId = record.optString("containerId", null);
+        return recordContainerId == null ? primary : recordContainerId.equals(containerId);
+    }
+
+    private void addPending(String containerId, int delta) {
+        Integer count = pending.get(containerId);
+        int updated = (count != null ? count : 0) + delta;
+        if (updated > 0) {
+            pending.put(containerId, updated);
+        } else {
+            pending.remove(containerId);
+        }
+    }
+
+    /**
+     * @return false if the record is larger than the whole journal and was dropped
+     */
+    private boolean append(byte[] line) throws IOException {
+        if (line.length > maxBytes) {
+            dropped++;
+            return false;
+        }
+        if (bytes + line.length > maxBytes) {
+            compact(maxBytes - line.length);
+        }
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        out.write(line);
+        out.flush();
+        bytes += line.length;
+        records++;
+        return true;
+    }
+
+    /**
+     * Rewrites the journal keeping only the newest records that fit within
+     * three quarters of the limit, so compaction does not run on every append.
+     */
+    private void compact(long limit) throws IOException {
+        List<JSONObject> all = read();
+        long budget = Math.min(limit, maxBytes * 3L / 4);
+        long keptBytes = 0;
+        int keepFrom = all.size();
+        while (keepFrom > 0) {
+            long length = (all.get(keepFrom - 1).toString() + "\n").getBytes(UTF_8).length;
+            if (keptBytes + length > budget) {
+                break;
+            }
+            keptBytes += length;
+            keepFrom--;
+        }
+        int lost = 0;
+        for (int i = 0; i < keepFrom; i++) {
+            long seq = all.get(i).optLong("seq", 0);
+            // Records already replayed, or held in memory by the running replay, are not lost.
+            if (!replayed.remove(seq) && !inFlight.remove(seq)) {
+                lost++;
+            }
+        }
+        dropped += lost;
+        rewrite(all.subList(keepFrom, all.size()));
+        Log.w(TAG, "Event journal full, dropped " + lost + " oldest events");
+    }
+
+    /**
+     * Replaces the file with the given records and recounts the pending ones.
+     */
+    private void rewrite(List<JSONObject> kept) throws IOException {
+        closeStream();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream tempOut = new FileOutputStream(temp, false);
+        long size = 0;
+        pending.clear();
+        try {
+            for (JSONObject record : kept) {
+                byte[] line = (record.toString() + "\n").getBytes(UTF_8);
+                tempOut.write(line);
+                size += line.length;
+                if (!replayed.contains(record.optLong("seq", 0))) {
+                    addPending(record.optString("containerId", null), 1);
+                }
+            }
+            tempOut.getFD().sync();
+        } finally {
+            tempOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        bytes = size;
+        records = kept.size();
+    }
+
+    /**
+     * Empties the marker once the replayed records are gone from the journal.
+     * Sequence numbers keep increasing, so a stale marker left by a crash in
+     * between cannot match a newer record.
+     */
+    private void clearMarker() throws IOException {
+        closeMarker();
+        new FileOutputStream(marker, false).close();
+        replayed.clear();
+    }
+
+    /**
+     * Counts the records left by a previous process, drops a torn or unreadable
+     * tail and the records already replayed. Runs once; the plugin calls it on
+     * its worker thread so the file is not read on the UI thread.
+     */
+    synchronized void recover() {
+        if (recovered) {
+            return;
+        }
+        recovered = true;
+        readMarker();
+        for (Long seq : replayed) {
+            nextSeq = Math.max(nextSeq, seq + 1);
+        }
+        if (!file.exists()) {
+            return;
+        }
+        List<JSONObject> all = read();
+        List<JSONObject> kept = new ArrayList<JSONObject>(all.size());
+        long size = 0;
+        for (JSONObject record : all) {
+            long seq = record.optLong("seq", 0);
+            nextSeq = Math.max(nextSeq, seq + 1);
+            if (!replayed.contains(seq)) {
+                kept.add(record);
+                addPending(record.optString("containerId", null), 1);
+            }
+            size += (record.toString() + "\n").getBytes(UTF_8).length;
+        }
+        bytes = size;
+        records = all.size();
+        if (!replayed.isEmpty() || size != file.length()) {
+            try {
+                rewrite(kept);
+                clearMarker();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to repair event journal", e);
+            }
+        }
+    }
+
+    private void readMarker() {
+        if (!marker.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(marker), UTF_8));
+            // Only lines ending in a newline count: a torn write from a crash can
+            // leave a prefix of the last number, which would name another record.
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                try {
+                    replayed.add(Long.parseLong(line.toString().trim()));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                line.setLength(0);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read replay marker", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private List<JSONObject> read() {
+        List<JSONObject> all = new ArrayList<JSONObject>(records);
+        if (!file.exists()) {
+            return all;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    all.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // A torn write from a crash can only be the last line.
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read event journal", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return all;
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private void closeMarker() {
+        if (markerOut != null) {
+            try {
+                markerOut.close();
+            } catch (IOException ignored) {
+            }
+            markerOut = null;
+        }
+    }
+}
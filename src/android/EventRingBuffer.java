@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+
+/**
+ * Fixed-capacity queue between the bridge and the worker thread. Slots are
+ * preallocated, so memory stays flat however fast the page pushes events, and
+ * an overflow policy decides what happens when the buffer is full.
+ */
+class EventRingBuffer {
+
+    static final int DEFAULT_CAPACITY = 500;
+
+    enum OverflowPolicy {
+        /** Evict the oldest buffered event to make room. */
+        DROP_OLDEST,
+        /** Discard the incoming event. */
+        DROP_NEWEST,
+        /** Past three quarters full keep one incoming event in SAMPLE_EVERY, dropping the rest. */
+        SAMPLE,
+        /** Refuse a whole batch that does not fit, so the caller can retry it later. */
+        REJECT;
+
+        static OverflowPolicy parse(String name) {
+            if ("dropNewest".equals(name)) {
+                return DROP_NEWEST;
+            }
+            if ("sample".equals(name)) {
+                return SAMPLE;
+            }
+            if ("reject".equals(name)) {
+                return REJECT;
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    interface DropListener {
+        void onDropped(String method, PendingBatch batch, int index);
+    }
+
+    /**
+     * Caller-owned holder that poll() fills, so draining does not allocate.
+     */
+    static class Slot {
+        String method;
+        JSONArray args;
+        String containerId;
+        PendingBatch batch;
+        int index;
+    }
+
+    private static final int SAMPLE_EVERY = 4;
+
+    private final DropListener dropListener;
+    private OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+    private String[] methods;
+    private JSONArray[] args;
+    private String[] containerIds;
+    private PendingBatch[] batches;
+    private int[] indices;
+    private int head;
+    private int count;
+    private int sampleCounter;
+
+    EventRingBuffer(int capacity, DropListener dropListener) {
+        this.dropListener = dropListener;
+        allocate(capacity);
+    }
+
+    /**
+     * Changes capacity and policy, keeping buffered events. If the new capacity
+     * is smaller, the oldest events that no longer fit are dropped.
+     */
+    synchronized void configure(int capacity, OverflowPolicy policy) {
+        this.policy = policy;
+        capacity = Math.max(1, capacity);
+        if (capacity == methods.length) {
+            return;
+        }
+        while (count > capacity) {
+            dropOldest();
+        }
+        String[] oldMethods = methods;
+        JSONArray[] oldArgs = args;
+        String[] oldContainerIds = containerIds;
+        PendingBatch[] oldBatches = batches;
+        int[] oldIndices = indices;
+        int oldHead = head;
+        int oldCount = count;
+        allocate(capacity);
+        for (int i = 0; i < oldCount; i++) {
+            int from = (oldHead + i) % oldMethods.length;
+            methods[i] = oldMethods[from];
+            args[i] = oldArgs[from];
+            containerIds[i] = oldContainerIds[from];
+            batches[i] = oldBatches[from];
+            indices[i] = oldIndices[from];
+        }
+        count = oldCount;
+    }
+
+    synchronized OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return whether n more events fit without dropping any
+     */
+    synchronized boolean hasRoomFor(int n) {
+        return methods.length - count >= n;
+    }
+
+    /**
+     * Adds an event, applying the overflow policy if the buffer is full.
+     * Dropped events are reported to the drop listener.
+     */
+    synchronized void offer(String method, JSONArray methodArgs, String containerId, PendingBatch batch, int index) {
+        int capacity = methods.length;
+        if (policy == OverflowPolicy.SAMPLE && count >= capacity * 3 / 4 && sampleCounter++ % SAMPLE_EVERY != 0) {
+            dropListener.onDropped(method, batch, index);
+            return;
+        }
+        if (count == capacity) {
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                dropOldest();
+            } else {
+                dropListener.onDropped(method, batch, index);
+                return;
+            }
+        }
+        int tail = (head + count) % capacity;
+        methods[tail] = method;
+        args[tail] = methodArgs;
+        containerIds[tail] = containerId;
+        batches[tail] = batch;
+        indices[tail] = index;
+        count++;
+    }
+
+    /**
+     * Removes the oldest event into the given slot.
+     *
+     * @return false if the buffer was empty
+     */
+    synchronized boolean poll(Slot slot) {
+        if (count == 0) {
+            return false;
+        }
+        slot.method = methods[head];
+        slot.args = args[head];
+        slot.containerId = containerIds[head];
+        slot.batch = batches[head];
+        slot.index = indices[head];
+        clear(head);
+        head = (head + 1) % methods.length;
+        count--;
+        if (count < methods.length * 3 / 4) {
+            sampleCounter = 0;
+        }
+        return true;
+    }
+
+    private void dropOldest() {
+        dropListener.onDropped(methods[head], batches[head], indices[head]);
+        clear(head);
+        head = (head + 1) % methods.length;
+        count--;
+    }
+
+    private void clear(int position) {
+        methods[position] = null;
+        args[position] = null;
+        containerIds[position] = null;
+        batches[position] = null;
+    }
+
+    private void allocate(int capacity) {
+        methods = new String[capacity];
+        args = new JSONArray[capacity];
+        containerIds = new String[capacity];
+        batches = new PendingBatch[capacity];
+        indices = new int[capacity];
+        head = 0;
+        count = 0;
+    }
+}
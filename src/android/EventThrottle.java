@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per event name sampling and rate limits for pushEvent. Configured with an
+ * object keyed by event name, where "*" applies to every other event:
+ *
+ * <pre>
+ * { "scroll": { "sampleRate": 0.1 }, "video-progress": { "ratePerSecond": 2, "burst": 5 } }
+ * </pre>
+ *
+ * Checking an event only reads the configuration and updates counters, so
+ * rejected events cost next to nothing.
+ */
+class EventThrottle {
+
+    static final String ANY_EVENT = "*";
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final class Limit {
+        final double sampleRate;
+        // Token bucket in tokens per second, or 0 for no rate limit.
+        final double ratePerSecond;
+        final double burst;
+
+        // Guarded by this.
+        private double tokens;
+        private long refillNanos;
+
+        Limit(double sampleRate, double ratePerSecond, double burst) {
+            this.sampleRate = sampleRate;
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refillNanos = System.nanoTime();
+        }
+
+        synchronized boolean take() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refillNanos) * ratePerSecond / NANOS_PER_SECOND);
+            refillNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    private final Random random = new Random();
+    private volatile Map<String, Limit> limits = Collections.emptyMap();
+
+    /**
+     * Replaces the configuration; null or an empty object removes every limit.
+     *
+     * @throws JSONException if a limit is not an object
+     */
+    void configure(JSONObject config) throws JSONException {
+        if (config == null || config.length() == 0) {
+            limits = Collections.emptyMap();
+            return;
+        }
+        Map<String, Limit> parsed = new HashMap<String, Limit>(config.length() * 4 / 3 + 1);
+        Iterator<String> names = config.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            JSONObject limit = config.getJSONObject(name);
+            double rate = Math.max(0, limit.optDouble("ratePerSecond", 0));
+            parsed.put(name, new Limit(
+                    Math.max(0, Math.min(1, limit.optDouble("sampleRate", 1))),
+                    rate,
+                    Math.max(1, limit.optDouble("burst", Math.max(1, rate)))));
+        }
+        limits = Collections.unmodifiableMap(parsed);
+    }
+
+    /**
+     * @param event the event name, or null for a push without one
+     * @return false if the event should be discarded
+     */
+    boolean allow(String event) {
+        Map<String, Limit> current = limits;
+        if (current.isEmpty()) {
+            return true;
+        }
+        Limit limit = event != null ? current.get(event) : null;
+        if (limit == null) {
+            limit = current.get(ANY_EVENT);
+            if (limit == null) {
+                return true;
+            }
+        }
+        if (limit.sampleRate < 1 && random.nextDouble() >= limit.sampleRate) {
+            return false;
+        }
+        return limit.ratePerSecond <= 0 || limit.take();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jareddickson.cordova.tagmanager;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.tagmanager.ContainerHolder;
+import com.google.android.gms.tagmanager.DataLayer;
+import com.google.android.gms.tagmanager.TagManager;
+
+import java.util.Map;
+
+/**
+ * Forwards to the Google Play services TagManager and its DataLayer.
+ */
+class GmsTagManagerClient implements TagManagerClient {
+
+    private final TagManager tagManager;
+    private final DataLayerClient dataLayer;
+
+    GmsTagManagerClient(TagManager tagManager) {
+        this.tagManager = tagManager;
+        this.dataLayer = new GmsDataLayer(tagManager.getDataLayer());
+    }
+
+    @Override
+    public DataLayerClient getDataLayer() {
+        return dataLayer;
+    }
+
+    @Override
+    public void dispatch() {
+        tagManager.dispatch();
+    }
+
+    @Override
+    public void setVerboseLoggingEnabled(boolean enabled) {
+        tagManager.setVerboseLoggingEnabled(enabled);
+    }
+
+    @Override
+    public PendingResult<ContainerHolder> loadContainerPreferNonDefault(String containerId, int defaultContainerResourceId) {
+        return tagManager.loadContainerPreferNonDefault(containerId, defaultContainerResourceId);
+    }
+
+    private static class GmsDataLayer implements DataLayerClient {
+        private final DataLayer dataLayer;
+
+        GmsDataLayer(DataLayer dataLayer) {
+            this.dataLayer = dataLayer;
+        }
+
+        @Override
+        public void push(Map<String, Object> update) {
+            dataLayer.push(update);
+        }
+
+        @Override
+        public void push(String key, Object value) {
+            dataLayer.push(key, value);
+        }
+
+        @Override
+        public void pushEvent(String eventName, Map<String, Object> update) {
+            dataLayer.pushEvent(eventName, update);
+        }
+
+        @Override
+        public String toString() {
+            return dataLayer.toString();
+        }
+    }
+}
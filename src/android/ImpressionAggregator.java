@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers product impressions per container, list and currency and emits them as a single
+ * productImpression event when the window closes or the buffer fills. A
+ * product seen again within the window is reported only once.
+ */
+class ImpressionAggregator {
+
+    static final int DEFAULT_MAX_BATCH_SIZE = 25;
+
+    interface Sink {
+        /**
+         * @param containerId the container the impressions are meant for, or null for the primary one
+         */
+        void emit(String containerId, String list, String currencyCode, List<Object> impressions, Object contentName);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final Map<String, Buffer> buffers = new HashMap<String, Buffer>();
+    private long windowMillis;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    ImpressionAggregator(ScheduledExecutorService scheduler, Sink sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    /**
+     * @param windowMillis how long impressions are buffered; 0 disables aggregation
+     * @param maxBatchSize number of impressions that triggers an early flush
+     */
+    void configure(long windowMillis, int maxBatchSize) {
+        flushAll();
+        synchronized (this) {
+            this.windowMillis = windowMillis;
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            buffers.clear();
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * @param containerId the container the impression is meant for, or null for the primary one
+     */
+    void add(String containerId, String list, String currencyCode, String id, Map<String, Object> item, Object contentName) {
+        Buffer full = null;
+        synchronized (this) {
+            String key = containerId + '\u0000' + list + '\u0000' + currencyCode;
+            Buffer buffer = buffers.get(key);
+            if (buffer == null) {
+                buffer = new Buffer(key, containerId, list, currencyCode);
+                buffers.put(key, buffer);
+            }
+            long now = System.currentTimeMillis();
+            Long lastSeen = buffer.seen.get(id);
+            if (lastSeen != null && now - lastSeen < windowMillis) {
+                return;
+            }
+            buffer.seen.put(id, now);
+            if (buffer.items.isEmpty()) {
+                buffer.contentName = contentName;
+                buffer.flushTask = scheduler.schedule(new FlushTask(key), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            buffer.items.put(id, item);
+            if (buffer.items.size() >= maxBatchSize) {
+                full = buffer;
+            }
+        }
+        if (full != null) {
+            flush(full.key);
+        }
+    }
+
+    /**
+     * Emits everything buffered, e.g. before the app goes to the background.
+     */
+    void flushAll() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<String>(buffers.keySet());
+        }
+        for (String key : keys) {
+            flush(key);
+        }
+    }
+
+    private void flush(String key) {
+        String containerId;
+        String list;
+        String currencyCode;
+        List<Object> impressions;
+        Object contentName;
+        synchronized (this) {
+            Buffer buffer = buffers.get(key);
+            if (buffer == null || buffer.items.isEmpty()) {
+                return;
+            }
+            if (buffer.flushTask != null) {
+                buffer.flushTask.cancel(false);
+                buffer.flushTask = null;
+            }
+            containerId = buffer.containerId;
+            list = buffer.list;
+            currencyCode = buffer.currencyCode;
+            impressions = new ArrayList<Object>(buffer.items.values());
+            contentName = buffer.contentName;
+            buffer.items.clear();
+            buffer.pruneSeen(System.currentTimeMillis() - windowMillis);
+        }
+        sink.emit(containerId, list, currencyCode, impressions, contentName);
+    }
+
+    private static class Buffer {
+        final String key;
+        final String containerId;
+        final String list;
+        final String currencyCode;
+        final Map<String, Map<String, Object>> items = new LinkedHashMap<String, Map<String, Object>>();
+        final Map<String, Long> seen = new HashMap<String, Long>();
+        Object contentName;
+        ScheduledFuture<?> flushTask;
+
+        Buffer(String key, String containerId, String list, String currencyCode) {
+            this.key = key;
+            this.containerId = containerId;
+            this.list = list;
+            this.currencyCode = currencyCode;
+        }
+
+        void pruneSeen(long cutoff) {
+            Iterator<Long> it = seen.values().iterator();
+            while (it.hasNext()) {
+                if (it.next() < cutoff) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private class FlushTask implements Runnable {
+        private final String key;
+
+        FlushTask(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            flush(key);
+        }
+    }
+}
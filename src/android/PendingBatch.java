@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Results of a pushBatch call whose operations are still buffered. The batch
+ * callback is answered once every operation has run or been dropped.
+ */
+class PendingBatch {
+
+    private final CallbackContext callback;
+    private final JSONArray results;
+    private int remaining;
+
+    PendingBatch(CallbackContext callback, int size) {
+        this.callback = callback;
+        this.results = new JSONArray();
+        this.remaining = size;
+        if (size == 0) {
+            callback.success(results);
+        }
+    }
+
+    synchronized void complete(int index, JSONObject result) {
+        try {
+            results.put(index, result);
+        } catch (JSONException e) {
+            callback.error(e.getMessage());
+            return;
+        }
+        if (--remaining == 0) {
+            callback.success(results);
+        }
+    }
+
+    void fail(int index, String method, String message) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("method", method);
+            result.put("success", false);
+            result.put("message", message);
+        } catch (JSONException ignored) {
+        }
+        complete(index, result);
+    }
+}
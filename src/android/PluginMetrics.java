@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-action counters and fixed-bucket latency histograms. The table is built
+ * once from the registered action names, so recording an action is a map
+ * lookup and a few atomic increments, with no allocation.
+ */
+class PluginMetrics implements CDVTagManager.ActionListener {
+
+    // Upper bounds of the latency buckets in microseconds; the last bucket is unbounded.
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000
+    };
+
+    private static final int SUCCEEDED = 0;
+    private static final int FAILED = 1;
+    private static final int NOT_INITIALIZED = 2;
+    private static final int JOURNALED = 3;
+    private static final int DROPPED = 4;
+    private static final int THROTTLED = 5;
+    private static final int TOTAL_NANOS = 6;
+    private static final int MAX_NANOS = 7;
+    private static final int FIRST_BUCKET = 8;
+
+    private final Map<String, AtomicLongArray> actions;
+
+    PluginMetrics(Collection<String> actionNames) {
+        actions = new HashMap<String, AtomicLongArray>(actionNames.size() * 4 / 3 + 1);
+        for (String name : actionNames) {
+            actions.put(name, new AtomicLongArray(FIRST_BUCKET + BUCKET_BOUNDS_MICROS.length + 1));
+        }
+    }
+
+    @Override
+    public void onActionCompleted(String action, CDVTagManager.Outcome outcome, long elapsedNanos) {
+        AtomicLongArray stats = actions.get(action);
+        if (stats == null) {
+            return;
+        }
+        switch (outcome) {
+            case SUCCEEDED:
+                stats.incrementAndGet(SUCCEEDED);
+                break;
+            case FAILED:
+                stats.incrementAndGet(FAILED);
+                break;
+            case NOT_INITIALIZED:
+                stats.incrementAndGet(NOT_INITIALIZED);
+                return;
+            case JOURNALED:
+                stats.incrementAndGet(JOURNALED);
+                return;
+            case DROPPED:
+                stats.incrementAndGet(DROPPED);
+                return;
+            case THROTTLED:
+                stats.incrementAndGet(THROTTLED);
+                return;
+        }
+        stats.addAndGet(TOTAL_NANOS, elapsedNanos);
+        long max;
+        while (elapsedNanos > (max = stats.get(MAX_NANOS)) && !stats.compareAndSet(MAX_NANOS, max, elapsedNanos)) {
+            // retry until the maximum is published
+        }
+        stats.incrementAndGet(FIRST_BUCKET + bucketFor(elapsedNanos / 1000));
+    }
+
+    /**
+     * Latency figures cover actions that ran, i.e. succeeded or failed.
+     */
+    JSONObject snapshot() throws JSONException {
+        JSONObject result = new JSONObject();
+        JSONArray bounds = new JSONArray();
+        for (long bound : BUCKET_BOUNDS_MICROS) {
+            bounds.put(bound);
+        }
+        result.put("bucketBoundsMicros", bounds);
+
+        JSONObject perAction = new JSONObject();
+        for (Map.Entry<String, AtomicLongArray> entry : actions.entrySet()) {
+            AtomicLongArray stats = entry.getValue();
+            long ran = stats.get(SUCCEEDED) + stats.get(FAILED);
+            if (ran + stats.get(NOT_INITIALIZED) + stats.get(JOURNALED) + stats.get(DROPPED) + stats.get(THROTTLED) == 0) {
+                continue;
+            }
+            JSONObject action = new JSONObject();
+            action.put("succeeded", stats.get(SUCCEEDED));
+            action.put("failed", stats.get(FAILED));
+            action.put("notInitialized", stats.get(NOT_INITIALIZED));
+            action.put("journaled", stats.get(JOURNALED));
+            action.put("dropped", stats.get(DROPPED));
+            action.put("throttled", stats.get(THROTTLED));
+            action.put("meanMs", ran > 0 ? stats.get(TOTAL_NANOS) / 1e6 / ran : 0);
+            action.put("maxMs", stats.get(MAX_NANOS) / 1e6);
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i <= BUCKET_BOUNDS_MICROS.length; i++) {
+                buckets.put(stats.get(FIRST_BUCKET + i));
+            }
+            action.put("buckets", buckets);
+            perAction.put(entry.getKey(), action);
+        }
+        result.put("actions", perAction);
+        return result;
+    }
+
+    private static int bucketFor(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (micros < BUCKET_BOUNDS_MICROS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MICROS.length;
+    }
+}
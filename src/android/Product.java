@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A product decoded once from the bridge arguments. The price is kept as an
+ * exact decimal so revenue values are not truncated.
+ */
+final class Product {
+
+    final String id;
+    final String name;
+    // In plain notation, as BigDecimal.toPlainString() writes it.
+    final String price;
+    final int quantity;
+    final String brand;
+    final String category;
+    final String variant;
+    final String coupon;
+
+    private Product(String id, String name, String price, int quantity,
+                    String brand, String category, String variant, String coupon) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.brand = brand;
+        this.category = category;
+        this.variant = variant;
+        this.coupon = coupon;
+    }
+
+    static Product fromJson(JSONObject item) throws JSONException {
+        return new Product(
+                item.getString("id"),
+                item.getString("name"),
+                plainDecimal(item, "price"),
+                item.has("quantity") ? item.getInt("quantity") : 1,
+                optional(item, "brand"),
+                optional(item, "category"),
+                optional(item, "variant"),
+                optional(item, "coupon"));
+    }
+
+    /**
+     * Checks every item the way fromJson would, without keeping any of them, so
+     * an invalid item is reported before the first chunk of a cart is pushed.
+     */
+    static void validate(JSONArray items) throws JSONException {
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            item.getString("id");
+            item.getString("name");
+            plainDecimal(item, "price");
+            if (item.has("quantity")) {
+                item.getInt("quantity");
+            }
+        }
+    }
+
+    /**
+     * Encodes the product for a products list.
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>(16);
+        putCommon(map);
+        map.put("quantity", quantity);
+        putOptional(map, "coupon", coupon);
+        return map;
+    }
+
+    /**
+     * Encodes the product for an impressions list.
+     */
+    Map<String, Object> toImpressionMap(String list) {
+        Map<String, Object> map = new HashMap<String, Object>(16);
+        putCommon(map);
+        map.put("list", list);
+        return map;
+    }
+
+    /**
+     * @return the price as a decimal number for event values
+     */
+    double value() {
+        return Double.parseDouble(price);
+    }
+
+    private void putCommon(Map<String, Object> map) {
+        map.put("name", name);
+        map.put("id", id);
+        map.put("price", price);
+        putOptional(map, "brand", brand);
+        putOptional(map, "category", category);
+        putOptional(map, "variant", variant);
+    }
+
+    static BigDecimal decimal(JSONObject o, String key) throws JSONException {
+        return parseDecimal(key, o.getString(key));
+    }
+
+    /**
+     * Reads a decimal number in plain notation. Numbers already written that
+     * way, as prices usually are, are returned as sent without being parsed.
+     */
+    static String plainDecimal(JSONObject o, String key) throws JSONException {
+        String value = o.getString(key);
+        String trimmed = value.trim();
+        return isPlain(trimmed) ? trimmed : parseDecimal(key, value).toPlainString();
+    }
+
+    private static BigDecimal parseDecimal(String key, String value) throws JSONException {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            throw new JSONException(key + " is not a number: " + value);
+        }
+    }
+
+    // Digits without a redundant leading zero, optionally followed by a dot and
+    // more digits: the strings toPlainString() returns for non-negative numbers.
+    private static boolean isPlain(String value) {
+        int length = value.length();
+        int i = 0;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+        }
+        if (i == 0 || (i > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        if (i == length) {
+            return true;
+        }
+        if (value.charAt(i) != '.' || i + 1 == length) {
+            return false;
+        }
+        for (int j = i + 1; j < length; j++) {
+            if (!isDigit(value.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static String optional(JSONObject o, String key) {
+        return o.isNull(key) ? null : o.optString(key);
+    }
+
+    static void putOptional(Map<String, Object> map, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            map.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import android.content.Context;
+
+import com.google.android.gms.tagmanager.TagManager;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Handles resolved once when the plugin is initialized and shared by every
+ * action, so the hot path does not repeat the activity, singleton and resource
+ * lookups. Containers are kept by id; the first one passed to load() is the
+ * primary container used by actions that do not name one.
+ * <p>
+ * The DataLayer is a process wide singleton shared by every loaded container.
+ */
+class TagManagerSession {
+
+    private static final String DEFAULT_CONTAINER_NAME = "defaultcontainer_binary";
+
+    private final Context context;
+    private final TagManagerClient tagManager;
+    private final DataLayerClient dataLayer;
+    private final int defaultContainerResourceId;
+    private final ContainerLoader.Listener containerListener;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, ContainerLoader> containers = new ConcurrentHashMap<String, ContainerLoader>();
+    private volatile String primaryContainerId;
+
+    TagManagerSession(Context context, ContainerLoader.Listener containerListener, ScheduledExecutorService scheduler) {
+        this(context.getApplicationContext(), new GmsTagManagerClient(TagManager.getInstance(context.getApplicationContext())),
+                containerListener, scheduler);
+    }
+
+    /**
+     * @param tagManager the instance to use instead of the process wide one,
+     *                   e.g. a stand-in when measuring the plugin on its own
+     */
+    TagManagerSession(Context context, TagManagerClient tagManager, ContainerLoader.Listener containerListener, ScheduledExecutorService scheduler) {
+        this.context = context;
+        this.tagManager = tagManager;
+        this.dataLayer = tagManager.getDataLayer();
+        this.defaultContainerResourceId = resourceId(DEFAULT_CONTAINER_NAME);
+        this.containerListener = containerListener;
+        this.scheduler = scheduler;
+    }
+
+    Context getContext() {
+        return context;
+    }
+
+    TagManagerClient getTagManager() {
+        return tagManager;
+    }
+
+    DataLayerClient getDataLayer() {
+        return dataLayer;
+    }
+
+    /**
+     * @return the primary container, or null if none was loaded
+     */
+    ContainerLoader getContainer() {
+        return getContainer(null);
+    }
+
+    /**
+     * @param containerId a container id, or null for the primary container
+     * @return the container, or null if it was not loaded
+     */
+    ContainerLoader getContainer(String containerId) {
+        String id = containerId != null ? containerId : primaryContainerId;
+        return id != null ? containers.get(id) : null;
+    }
+
+    Collection<ContainerLoader> getContainers() {
+        return containers.values();
+    }
+
+    boolean isReady(String containerId) {
+        ContainerLoader container = getContainer(containerId);
+        return container != null && container.isReady();
+    }
+
+    /**
+     * Starts loading every given container at once, releasing loaded
+     * containers that are no longer wanted. Containers that are already loading
+     * or loaded are kept as they are.
+     *
+     * @param refreshIntervals container ids in order, primary first, mapped to
+     *                         their refresh interval in milliseconds
+     */
+    synchronized void load(Map<String, Long> refreshIntervals) {
+        Iterator<Map.Entry<String, ContainerLoader>> it = containers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ContainerLoader> entry = it.next();
+            if (!refreshIntervals.containsKey(entry.getKey())) {
+                entry.getValue().release();
+                it.remove();
+            }
+        }
+        primaryContainerId = null;
+        for (Map.Entry<String, Long> entry : refreshIntervals.entrySet()) {
+            String id = entry.getKey();
+            if (primaryContainerId == null) {
+                primaryContainerId = id;
+            }
+            ContainerLoader container = containers.get(id);
+            if (container == null) {
+                int resourceId = id.equals(primaryContainerId) ? defaultContainerResourceId : resourceId(defaultContainerName(id));
+                container = new ContainerLoader(tagManager, resourceId, containerListener, scheduler);
+                containers.put(id, container);
+            }
+            container.load(id);
+            container.setRefreshInterval(entry.getValue());
+        }
+    }
+
+    /**
+     * Releases every loaded container. The TagManager and DataLayer are process
+     * wide singletons and stay valid for a later initGTM.
+     */
+    synchronized void close() {
+        for (ContainerLoader container : containers.values()) {
+            container.release();
+        }
+        containers.clear();
+        primaryContainerId = null;
+    }
+
+    // Default binaries of secondary containers keep the name they are downloaded
+    // with, e.g. res/raw/gtm_abc123 for GTM-ABC123.
+    private static String defaultContainerName(String containerId) {
+        return containerId.toLowerCase().replace('-', '_');
+    }
+
+    private int resourceId(String name) {
+        return context.getResources().getIdentifier(name, "raw", context.getPackageName());
+    }
+}
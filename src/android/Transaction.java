@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2014 Jared Dickson
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.jareddickson.cordova.tagmanager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A purchase decoded once from the bridge arguments, with exact decimal
+ * revenue, tax and shipping.
+ */
+final class Transaction {
+
+    final String id;
+    final String affiliation;
+    final BigDecimal revenue;
+    final BigDecimal tax;
+    final BigDecimal shipping;
+    final String coupon;
+
+    private Transaction(String id, String affiliation, BigDecimal revenue, BigDecimal tax,
+                        BigDecimal shipping, String coupon) {
+        this.id = id;
+        this.affiliation = affiliation;
+        this.revenue = revenue;
+        this.tax = tax;
+        this.shipping = shipping;
+        this.coupon = coupon;
+    }
+
+    static Transaction fromJson(JSONObject transaction) throws JSONException {
+        return new Transaction(
+                transaction.getString("transactionId"),
+                transaction.getString("transactionAffiliation"),
+                Product.decimal(transaction, "transactionTotal"),
+                Product.decimal(transaction, "transactionTax"),
+                Product.decimal(transaction, "transactionShipping"),
+                Product.optional(transaction, "transactionCoupon"));
+    }
+
+    /**
+     * Encodes the purchase actionField.
+     */
+    Map<String, Object> toActionField() {
+        Map<String, Object> map = new HashMap<String, Object>(8);
+        map.put("id", id);
+        map.put("affiliation", affiliation);
+        map.put("revenue", revenue.toPlainString());
+        map.put("tax", tax.toPlainString());
+        map.put("shipping", shipping.toPlainString());
+        Product.putOptional(map, "coupon", coupon);
+        return map;
+    }
+
+    /**
+     * Encodes the actionField for the follow-up events of a transaction split
+     * into several events. Totals are zero so they are only counted once.
+     */
+    Map<String, Object> toFollowUpActionField() {
+        Map<String, Object> map = new HashMap<String, Object>(8);
+        map.put("id", id);
+        map.put("affiliation", affiliation);
+        map.put("revenue", "0");
+        map.put("tax", "0");
+        map.put("shipping", "0");
+        return map;
+    }
+}
@@ -2,26 +2,55 @@
 	var cordovaRef = window.PhoneGap || window.cordova || window.Cordova;
 	var queue = [];
 	var runInterval = 1000;
+	var batchSize = 50;
+	// capacity of the native buffer; a bigger batch could never fit under the 'reject' policy
+	var DEFAULT_BUFFER_CAPACITY = 500;
+	var bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+	var batchSupported = !!cordovaRef && cordovaRef.platformId === 'android';
+	var maxQueueDepth = 0;
+	var maxQueueLength = 1000;
+	var droppedCount = 0;
+	var BUFFER_FULL_ERROR = 'pushBatch failed - buffer full';
+	var scopedContainerId = null;
+	// longest time queued calls wait for the container after initGTM; Android releases them
+	// as soon as onReady reports the primary container, iOS waits out its open timeout
+	var INIT_HOLD_MS = 3000;
+	var holdUntil = 0;
+	var primaryContainerId = null;
+	var containerStates = {};
+	var listeningForReady = false;
 	var running = false;
+	// at most one pushBatch is in flight, so a rejected batch put back on the queue
+	// cannot be overtaken by the next one
+	var batchInFlight = false;
 	var runner;
 
 	function TagManager() { }
 
 	// initialize google analytics with an account ID and the min number of seconds between posting
 	//
-	// id = the GTM account ID of the form 'GTM-000000'
+	// id = the GTM account ID of the form 'GTM-000000', or an array of IDs to load several
+	//      containers, the first one being the primary container
 	// period = the minimum interval for transmitting tracking events if any exist in the queue
-	TagManager.prototype.init = function (success, fail, id, period) {
+	// options = (optional) native options, e.g. { async: true, leanResponses: true }
+	TagManager.prototype.init = function (success, fail, id, period, options) {
 		runner = setInterval(run, runInterval);
 		running = true;
+		primaryContainerId = primaryId(id);
+		if (batchSupported) {
+			listenForReady();
+		}
+		bufferCapacity = options && typeof options.bufferCapacity === 'number' ?
+			Math.max(1, options.bufferCapacity) : DEFAULT_BUFFER_CAPACITY;
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'initGTM',
 			success: success,
 			fail: fail,
 			id: id,
-			period: period
+			period: period,
+			options: options || {}
 		});
 	};
 
@@ -33,7 +62,7 @@
 	// eventValue = The event value. This parameter may be -1 to indicate no value.
 	TagManager.prototype.trackEvent = function (success, fail, category, eventAction, eventLabel, eventValue) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'trackEvent',
 			success: success,
@@ -47,7 +76,7 @@
 
 	TagManager.prototype.pushImpression = function (success, fail, item, list, currencyCode) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushImpression',
 			success: success,
@@ -60,7 +89,7 @@
 
 	TagManager.prototype.pushProductClick = function (success, fail, item, list) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushProductClick',
 			success: success,
@@ -72,7 +101,7 @@
 
 	TagManager.prototype.pushDetailView = function (success, fail, item) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushDetailView',
 			success: success,
@@ -83,7 +112,7 @@
 
 	TagManager.prototype.pushAddToCart = function (success, fail, item, currencyCode) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushAddToCart',
 			success: success,
@@ -95,7 +124,7 @@
 
 	TagManager.prototype.pushRemoveFromCart = function (success, fail, item) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushRemoveFromCart',
 			success: success,
@@ -106,7 +135,7 @@
 
 	TagManager.prototype.pushCheckout = function (success, fail, stepNo, products, option, screenName) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushCheckout',
 			success: success,
@@ -120,7 +149,7 @@
 
 	TagManager.prototype.pushTransaction = function (success, fail, transaction, transactionItems) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushTransaction',
 			success: success,
@@ -132,7 +161,7 @@
 
 	TagManager.prototype.pushEvent = function (success, fail, eventData) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'pushEvent',
 			success: success,
@@ -147,7 +176,7 @@
 	// pageURL = the URL of the page view
 	TagManager.prototype.trackPage = function (success, fail, pageURL) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'trackPage',
 			success: success,
@@ -159,7 +188,7 @@
 	// force a dispatch to Tag Manager
 	TagManager.prototype.dispatch = function (success, fail) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'dispatch',
 			success: success,
@@ -167,10 +196,93 @@
 		});
 	};
 
+	// listen for container state changes; not queued, so it can be called before init
+	//
+	// callback = called with { state: 'DEFAULT' | 'FRESH' | 'FAILED', containerId: '...' } on every change
+	TagManager.prototype.onReady = function (callback, fail) {
+		cordovaRef.exec(callback, fail, 'TagManager', 'onReady', []);
+	};
+
+	// get native per-action counters and latency histograms plus the JS queue depth;
+	// not queued, so it reports even when the queue is backed up
+	TagManager.prototype.getMetrics = function (success, fail) {
+		cordovaRef.exec(function (metrics) {
+			metrics.queueDepth = queue.length;
+			metrics.maxQueueDepth = maxQueueDepth;
+			metrics.queueDropped = droppedCount;
+			callback(success, metrics);
+		}, fail, 'TagManager', 'getMetrics', []);
+	};
+
+	// read a container value; not queued, and served from values cached when the container loaded
+	//
+	// key = the value collection key
+	// type = 'string' (default), 'boolean', 'long' or 'double'
+	// containerId = (optional) the container to read from instead of the primary one
+	// success = called with { key: value }
+	TagManager.prototype.getValue = function (success, fail, key, type, containerId) {
+		cordovaRef.exec(success, fail, 'TagManager', 'getValue', [key, type || 'string', containerId || null]);
+	};
+
+	// read several container values of the same type at once, all from the same container version
+	//
+	// keys = an array of value collection keys
+	// success = called with an object holding the value of every key
+	TagManager.prototype.getValues = function (success, fail, keys, type, containerId) {
+		cordovaRef.exec(success, fail, 'TagManager', 'getValues', [keys, type || 'string', containerId || null]);
+	};
+
+	// get the current DataLayer contents as a string, for debugging
+	TagManager.prototype.getDataLayerSnapshot = function (success, fail) {
+		var timestamp = new Date().getTime();
+		enqueue({
+			timestamp: timestamp,
+			method: 'getDataLayerSnapshot',
+			success: success,
+			fail: fail
+		});
+	};
+
+	// get an object with the same tracking methods whose calls are meant for the given
+	// container instead of the primary one
+	//
+	// containerId = the ID of a container passed to init
+	TagManager.prototype.forContainer = function (containerId) {
+		var target = this;
+		var scoped = {};
+		var methods = ['trackEvent', 'pushEvent', 'trackPage', 'pushImpression', 'pushProductClick',
+			'pushDetailView', 'pushAddToCart', 'pushRemoveFromCart', 'pushCheckout', 'pushTransaction', 'dispatch'];
+		methods.forEach(function (name) {
+			scoped[name] = function () {
+				scopedContainerId = containerId;
+				try {
+					return target[name].apply(target, arguments);
+				} finally {
+					scopedContainerId = null;
+				}
+			};
+		});
+		return scoped;
+	};
+
+	// set the maximum number of queued items sent to the native side on each run
+	//
+	// size = the number of items per batch; 0 or less drains the whole queue
+	TagManager.prototype.setBatchSize = function (size) {
+		batchSize = size;
+	};
+
+	// set the maximum number of calls waiting in the queue; further tracking calls fail right away
+	//
+	// length = the maximum queue length; 0 or less removes the limit
+	TagManager.prototype.setMaxQueueLength = function (length) {
+		maxQueueLength = length;
+	};
+
 	// exit the TagManager instance and stop setInterval
 	TagManager.prototype.exit = function (success, fail) {
 		var timestamp = new Date().getTime();
-		queue.push({
+		enqueue({
 			timestamp: timestamp,
 			method: 'exitGTM',
 			success: success,
@@ -193,41 +305,166 @@
 		}
 	}
 
+	// add a call to the queue, refusing tracking calls once it is full so memory stays bounded
+	function enqueue(item) {
+		if (maxQueueLength > 0 && queue.length >= maxQueueLength && item.method !== 'initGTM' && item.method !== 'exitGTM') {
+			droppedCount++;
+			callback(item.fail, item.method + ' dropped - queue full');
+			return;
+		}
+		if (scopedContainerId !== null) {
+			item.containerId = scopedContainerId;
+		}
+		queue.push(item);
+	}
+
 	function run() {
-		if (queue.length > 0) {
-			var item = queue.shift();
-			if (item.method === 'initGTM') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.id, item.period]);
-			} else if (item.method === 'trackEvent') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.category, item.eventAction, item.eventLabel, item.eventValue]);
-			} else if (item.method === 'pushEvent') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.eventData]);
-            } else if (item.method === 'pushImpression') {
-               cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.item, item.list, item.currencyCode]);
-            } else if (item.method === 'pushProductClick') {
-               cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.item, item.list]);
-            } else if (item.method === 'pushDetailView') {
-               cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.item]);
-            } else if (item.method === 'pushAddToCart') {
-                cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.item, item.currencyCode]);
-            }  else if (item.method === 'pushRemoveFromCart') {
-                cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.item]);
-			} else if (item.method === 'pushCheckout') {
-			    cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.stepNo, item.products, item.option, item.screenName]);
-			} else if (item.method === 'pushTransaction') {
-                cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.transaction, item.transactionItems]);
-            } else if (item.method === 'trackPage') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, [item.pageURL]);
-			} else if (item.method === 'dispatch') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, []);
-			} else if (item.method === 'exitGTM') {
-				cordovaRef.exec(item.success, item.fail, 'TagManager', item.method, []);
-				clearInterval(runner);
-				running = false;
+		if (queue.length === 0 || batchInFlight || new Date().getTime() < holdUntil) {
+			return;
+		}
+		maxQueueDepth = Math.max(maxQueueDepth, queue.length);
+		var count = batchSize > 0 ? Math.min(batchSize, queue.length) : queue.length;
+		if (batchSupported) {
+			count = Math.min(count, bufferCapacity);
+		}
+		var exiting = false;
+		var initializing = false;
+		for (var i = 0; i < count; i++) {
+			if (queue[i].method === 'exitGTM') {
+				count = i + 1;
+				exiting = true;
+				break;
+			}
+			if (queue[i].method === 'initGTM') {
+				// end the batch here so the calls behind it wait for the container
+				count = i + 1;
+				initializing = true;
+				break;
 			}
 		}
+		var items = queue.splice(0, count);
+		if (initializing && !isReady(containerStates[primaryContainerId])) {
+			holdUntil = new Date().getTime() + INIT_HOLD_MS;
+		}
+		if (batchSupported) {
+			pushBatch(items);
+		} else {
+			for (var j = 0; j < items.length; j++) {
+				cordovaRef.exec(items[j].success, items[j].fail, 'TagManager', items[j].method, argsFor(items[j]));
+			}
+		}
+		if (exiting) {
+			clearInterval(runner);
+			running = false;
+			containerStates = {};
+			holdUntil = 0;
+		}
 	}
 
+	// follow container states so the queue held after initGTM is released once the
+	// primary container has loaded or failed to
+	function listenForReady() {
+		if (listeningForReady) {
+			return;
+		}
+		listeningForReady = true;
+		cordovaRef.exec(function (status) {
+			if (!status) {
+				return;
+			}
+			containerStates[status.containerId] = status.state;
+			if (status.containerId === primaryContainerId) {
+				holdUntil = 0;
+			}
+		}, null, 'TagManager', 'onReady', []);
+	}
+
+	function isReady(state) {
+		return state === 'DEFAULT' || state === 'FRESH';
+	}
+
+	// the ID of the primary container out of the id argument of init
+	function primaryId(id) {
+		var first = Array.isArray(id) ? id[0] : id;
+		return first !== null && typeof first === 'object' ? first.id : first;
+	}
+
+	// send the given queue items to the native side in a single exec call
+	function pushBatch(items) {
+		var operations = [];
+		for (var i = 0; i < items.length; i++) {
+			operations.push({
+				method: items[i].method,
+				args: argsFor(items[i]),
+				containerId: items[i].containerId
+			});
+		}
+		batchInFlight = true;
+		cordovaRef.exec(function (results) {
+			batchInFlight = false;
+			for (var i = 0; i < items.length; i++) {
+				var result = results[i];
+				if (result && result.success) {
+					callback(items[i].success, result.message);
+				} else {
+					callback(items[i].fail, result ? result.message : items[i].method + ' failed - no result');
+				}
+			}
+		}, function (error) {
+			batchInFlight = false;
+			if (error === BUFFER_FULL_ERROR && running) {
+				// the native buffer is full; put the batch back and retry on the next run
+				Array.prototype.unshift.apply(queue, items);
+				return;
+			}
+			for (var i = 0; i < items.length; i++) {
+				callback(items[i].fail, error);
+			}
+		}, 'TagManager', 'pushBatch', [operations]);
+	}
+
+	function callback(fn, message) {
+		if (typeof fn === 'function') {
+			fn(message);
+		}
+	}
+
+	function argsFor(item) {
+		switch (item.method) {
+			case 'initGTM':
+				return [item.id, item.period, item.options];
+			case 'trackEvent':
+				return [item.category, item.eventAction, item.eventLabel, item.eventValue];
+			case 'pushEvent':
+				return [item.eventData];
+			case 'pushImpression':
+				return [item.item, item.list, item.currencyCode];
+			case 'pushProductClick':
+				return [item.item, item.list];
+			case 'pushDetailView':
+				return [item.item];
+			case 'pushAddToCart':
+				return [item.item, item.currencyCode];
+			case 'pushRemoveFromCart':
+				return [item.item];
+			case 'pushCheckout':
+				return [item.stepNo, item.products, item.option, item.screenName];
+			case 'pushTransaction':
+				return [item.transaction, item.transactionItems];
+			case 'trackPage':
+				return [item.pageURL];
+			default:
+				return [];
+		}
+	}
+
+	// flush whatever is still queued before the app goes to the background
+	document.addEventListener('pause', function () {
+		if (running) {
+			run();
+		}
+	}, false);
+
 	if (typeof module != 'undefined' && module.exports) {
 		module.exports = new TagManager();
 	}